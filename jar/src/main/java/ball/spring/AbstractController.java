@@ -18,40 +18,106 @@ package ball.spring;
  * limitations under the License.
  * ##########################################################################
  */
+import ball.spring.dialect.MetricsDialect;
 import ball.spring.dialect.WebJarsDialect;
+import ball.spring.webjars.WebJarsResourceController;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.PropertiesFactoryBean;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.boot.web.servlet.error.ErrorController;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.ApplicationEventMulticaster;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.ui.Model;
-import org.springframework.validation.support.BindingAwareModelMap;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.springframework.web.util.ContentCachingResponseWrapper;
 import org.thymeleaf.spring5.SpringTemplateEngine;
 import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
+import org.thymeleaf.spring5.view.ThymeleafViewResolver;
 import org.webjars.RequireJS;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static lombok.AccessLevel.PROTECTED;
 import static org.apache.commons.lang3.StringUtils.appendIfMissing;
 import static org.apache.commons.lang3.StringUtils.prependIfMissing;
 import static org.apache.commons.lang3.StringUtils.removeEnd;
+import static org.springframework.context.support.AbstractApplicationContext.APPLICATION_EVENT_MULTICASTER_BEAN_NAME;
+import static org.springframework.core.io.support.ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.LINK;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.util.ResourceUtils.CLASSPATH_URL_PREFIX;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.HEAD;
 
 /**
  * Abstract {@link org.springframework.stereotype.Controller} base class.
@@ -59,8 +125,28 @@ import static org.springframework.http.HttpStatus.NOT_FOUND;
  * (with
  * {@code String.join("-", getClass().getPackage().getName().split(Pattern.quote(".")))}),
  * provides {@link #addDefaultModelAttributesTo(Model)} from corresponding
- * {@code template.model.properties}, and configures
- * {@link SpringResourceTemplateResolver} to use decoupled logic.
+ * {@code template.model.properties} (resolved once per view and
+ * re-resolved after a context refresh or environment change or, if
+ * {@code view.model.watch} is {@code true}, in the background when a
+ * file system {@code .model.properties} in a template location is
+ * created, changed, or deleted), and configures
+ * {@link SpringResourceTemplateResolver} to use decoupled logic.  If
+ * {@code webjars.preload.enabled}, the {@code Link: rel=preload} headers
+ * of the WebJars (scripts and style sheets) referenced by previous renders
+ * of the view are added before the view is rendered (see
+ * {@link WebJarsDialect#setPreload(boolean)}) and, if
+ * {@code webjars.preload.early-hints} and the container supports it, sent
+ * in a {@code 103 Early Hints} response.  If {@code error.cache.ttl} is
+ * positive (the default is {@code 0}, disabled), exception handling renders
+ * through an {@link ErrorPageCache} (see {@link #getErrorPageCache()}):
+ * the cached page is replayed to other clients so it is only used for
+ * anonymous requests (no session, principal, CSRF token, or flash
+ * attributes) and the error view and its default model attributes must
+ * not otherwise depend on the request.  If {@code view.metrics.enabled}
+ * and a Micrometer {@code MeterRegistry} is available, a
+ * {@link MetricsDialect} is registered to record per-view model
+ * population, render latency, output size, and {@link WebJarsDialect}
+ * processor time.
  *
  * {@injected.fields}
  *
@@ -68,9 +154,73 @@ import static org.springframework.http.HttpStatus.NOT_FOUND;
  */
 @NoArgsConstructor(access = PROTECTED) @ToString @Log4j2
 public abstract class AbstractController implements ErrorController {
+    private static final ClassValue<String> VIEW_NAME = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return String.join("-", type.getPackage().getName().split(Pattern.quote(".")));
+        }
+    };
+
+    /*
+     * Spring Cloud is optional so its EnvironmentChangeEvent is resolved
+     * by name.
+     */
+    private static final String ENVIRONMENT_CHANGE_EVENT =
+        "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+
+    /*
+     * Spring Security is optional so the CsrfToken request attribute is
+     * named.
+     */
+    private static final String CSRF_TOKEN = "org.springframework.security.web.csrf.CsrfToken";
+
+    private static final String METER_REGISTRY = "io.micrometer.core.instrument.MeterRegistry";
+    private static final String GZIP = "gzip";
+    private static final CacheControl WEBJARSJS_CACHE_CONTROL = CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic();
+
+    /*
+     * The RequireJS set-up is the same for every controller: it is built
+     * on first request and rebuilt after a context refresh.
+     */
+    private static volatile SetupJavaScript setup = null;
+
+    /*
+     * Servlet 4 has no early hints API: containers that support 103
+     * (e.g., Tomcat's ResponseFacade) expose a public sendEarlyHints()
+     * method that sends the headers set so far.
+     */
+    private static final ClassValue<Method> SEND_EARLY_HINTS = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            Method method = null;
+
+            try {
+                method = type.getMethod("sendEarlyHints");
+            } catch (NoSuchMethodException exception) {
+            }
+
+            return method;
+        }
+    };
+
     @Value("${server.error.path:${error.path:/error}}")
     private String errorPath = null;
 
+    @Value("${error.cache.ttl:0}")
+    private String errorCacheTtl = null;
+
+    @Value("${error.cache.detail-interval:10s}")
+    private String errorCacheDetailInterval = null;
+
+    @Value("${view.metrics.enabled:false}")
+    private boolean metricsEnabled = false;
+
+    @Value("${view.model.watch:false}")
+    private boolean watch = false;
+
+    @Value("${webjars.preload.early-hints:false}")
+    private boolean earlyHints = false;
+
     @Autowired
     private ApplicationContext context = null;
 
@@ -80,75 +230,324 @@ public abstract class AbstractController implements ErrorController {
     @Autowired
     private SpringResourceTemplateResolver resolver = null;
 
-    private ConcurrentSkipListMap<String,Properties> viewDefaultAttributesMap = new ConcurrentSkipListMap<>();
+    private ConcurrentSkipListMap<String,Map<String,Object>> viewDefaultAttributesMap = new ConcurrentSkipListMap<>();
+    @ToString.Exclude
+    private WebJarsDialect dialect = null;
+    @ToString.Exclude
+    private ModelPropertiesWatcher watcher = null;
+    @ToString.Exclude
+    private ApplicationEventMulticaster multicaster = null;
+    @ToString.Exclude
+    private EnvironmentChangeListener environmentChangeListener = null;
+    @ToString.Exclude
+    private ErrorPageCache errorPageCache = null;
+    @ToString.Exclude
+    private MetricsDialect metrics = null;
 
     @PostConstruct
     public void init() {
-        engine.addDialect(new WebJarsDialect());
+        /*
+         * The dialect may already be registered by the webjars starter or
+         * by another AbstractController subclass.
+         */
+        synchronized (engine) {
+            if (engine.getDialects().stream().noneMatch(WebJarsDialect.class::isInstance)) {
+                engine.addDialect(WebJarsDialect.of(context.getEnvironment()));
+            }
+
+            this.dialect =
+                engine.getDialects().stream()
+                .filter(WebJarsDialect.class::isInstance)
+                .map(WebJarsDialect.class::cast)
+                .findFirst().orElse(null);
+
+            if (metricsEnabled && ClassUtils.isPresent(METER_REGISTRY, getClass().getClassLoader())) {
+                metrics = Metrics.dialect(context, engine, dialect);
+            }
+        }
+
         resolver.setUseDecoupledLogic(true);
+
+        if (ClassUtils.isPresent(ENVIRONMENT_CHANGE_EVENT, getClass().getClassLoader())
+            && context.containsBean(APPLICATION_EVENT_MULTICASTER_BEAN_NAME)) {
+            Class<?> type = ClassUtils.resolveClassName(ENVIRONMENT_CHANGE_EVENT, getClass().getClassLoader());
+
+            multicaster = context.getBean(APPLICATION_EVENT_MULTICASTER_BEAN_NAME, ApplicationEventMulticaster.class);
+            environmentChangeListener = new EnvironmentChangeListener(type);
+            multicaster.addApplicationListener(environmentChangeListener);
+        }
+
+        Duration ttl = DurationStyle.detectAndParse(errorCacheTtl);
+
+        if (! (ttl.isZero() || ttl.isNegative())) {
+            errorPageCache =
+                new ErrorPageCache(ErrorPageCache.DEFAULT_MAXIMUM_SIZE, ttl,
+                                   DurationStyle.detectAndParse(errorCacheDetailInterval));
+        }
+
+        if (watch) {
+            try {
+                watcher = ModelPropertiesWatcher.acquire();
+            } catch (IOException exception) {
+                log.warn("Cannot watch .model.properties: {}", exception.getMessage());
+            }
+        }
     }
 
     @PreDestroy
-    public void destroy() { }
+    public void destroy() {
+        if (multicaster != null) {
+            multicaster.removeApplicationListener(environmentChangeListener);
+            multicaster = null;
+            environmentChangeListener = null;
+        }
+
+        if (watcher != null) {
+            watcher.release(this);
+            watcher = null;
+        }
+    }
 
     /* org.springframework.web.servlet.RequestToViewNameTranslator */
     public String getViewName(/* HttpServletRequest request */) {
-        return String.join("-", getClass().getPackage().getName().split(Pattern.quote(".")));
+        return VIEW_NAME.get(getClass());
     }
 
     @ModelAttribute
     public void addDefaultModelAttributesTo(Model model) {
-        BindingAwareModelMap defaults = new BindingAwareModelMap();
-        Properties properties =
-            viewDefaultAttributesMap.computeIfAbsent(getViewName(), k -> getDefaultAttributesFor(k));
+        MetricsDialect metrics = this.metrics;
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        String view = getViewName();
 
-        for (Map.Entry<Object,Object> entry : properties.entrySet()) {
-            String key = entry.getKey().toString();
-            String value = entry.getValue().toString();
+        model.mergeAttributes(viewDefaultAttributesMap.computeIfAbsent(view, k -> getDefaultAttributesFor(k)));
 
-            while (value != null) {
-                String unresolved = value;
+        if (metrics != null) {
+            metrics.recordModel(view, System.nanoTime() - start);
+        }
+    }
 
-                value = context.getEnvironment().resolvePlaceholders(unresolved);
+    /**
+     * Method to discard the resolved default model attributes on a
+     * {@link ContextRefreshedEvent}.  (A listener for the Spring Cloud
+     * {@code EnvironmentChangeEvent} is registered by {@link #init()} if
+     * the class is present and removed by {@link #destroy()}.)
+     */
+    @EventListener({ ContextRefreshedEvent.class })
+    public void refresh() {
+        viewDefaultAttributesMap.clear();
+        setup = null;
+    }
 
-                if (unresolved.equals(value)) {
+    /**
+     * Method to add the preload {@code Link} headers recorded by the
+     * {@link WebJarsDialect} for {@link #getViewName()} (and send a
+     * {@code 103 Early Hints} response if configured and supported).
+     * Because the headers are added before the handler is invoked, they
+     * are only added for handlers that must render the default view: those
+     * returning {@code void}, a {@link Model}, or a {@link Map} that are
+     * not (method or class) {@link ResponseBody} handlers and that do not
+     * write the response themselves.  Handlers returning a view name,
+     * {@link View}, {@link org.springframework.web.servlet.ModelAndView},
+     * or {@link org.springframework.http.HttpEntity} (which may redirect or
+     * render any other view) are ignored.
+     *
+     * @param   request         The {@link HttpServletRequest}.
+     * @param   response        The {@link HttpServletResponse}.
+     */
+    @ModelAttribute
+    public void addPreloadLinksTo(HttpServletRequest request, HttpServletResponse response) {
+        if (dialect != null && dialect.isPreload() && (! response.isCommitted())) {
+            Object handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+
+            if (handler instanceof HandlerMethod && rendersDefaultView((HandlerMethod) handler)) {
+                List<String> links = dialect.getPreloadLinks(getViewName(), request.getScheme());
+
+                if (! links.isEmpty()) {
+                    request.setAttribute(WebJarsDialect.PRELOADED, new LinkedHashSet<>(links));
+
+                    for (String link : links) {
+                        response.addHeader(LINK, link);
+                    }
+
+                    if (earlyHints) {
+                        sendEarlyHints(response);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean rendersDefaultView(HandlerMethod method) {
+        boolean renders =
+            (! method.hasMethodAnnotation(ResponseBody.class))
+            && (! method.hasMethodAnnotation(ResponseStatus.class))
+            && (! AnnotatedElementUtils.hasAnnotation(method.getBeanType(), ResponseBody.class))
+            && (! AnnotatedElementUtils.hasAnnotation(method.getBeanType(), ResponseStatus.class));
+
+        if (renders) {
+            Class<?> type = method.getReturnType().getParameterType();
+
+            renders =
+                (type == void.class || type == Void.class
+                 || Model.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type));
+        }
+
+        if (renders) {
+            for (MethodParameter parameter : method.getMethodParameters()) {
+                Class<?> type = parameter.getParameterType();
+
+                if (ServletResponse.class.isAssignableFrom(type)
+                    || OutputStream.class.isAssignableFrom(type) || Writer.class.isAssignableFrom(type)) {
+                    renders = false;
                     break;
                 }
             }
+        }
+
+        return renders;
+    }
+
+    private static void sendEarlyHints(ServletResponse response) {
+        while (response != null) {
+            Method method = SEND_EARLY_HINTS.get(response.getClass());
+
+            if (method != null) {
+                try {
+                    method.invoke(response);
+                } catch (Exception exception) {
+                    log.debug("Cannot send early hints: {}", exception.getMessage());
+                }
+
+                break;
+            }
+
+            response =
+                (response instanceof ServletResponseWrapper)
+                    ? ((ServletResponseWrapper) response).getResponse()
+                    : null;
+        }
+    }
+
+    /*
+     * The file system .model.properties resources found and, so a
+     * properties file created later is noticed, the expected path of the
+     * view's .model.properties in every file system template location.
+     */
+    private Set<Path> getWatchPathsFor(String name, Resource[] resources) {
+        Set<Path> paths = new LinkedHashSet<>();
+
+        try {
+            for (Resource resource : resources) {
+                if (resource.isFile()) {
+                    paths.add(resource.getFile().toPath());
+                }
+            }
+
+            String prefix = resolver.getPrefix();
+
+            if (prefix != null && name.startsWith(prefix)) {
+                String relative = name.substring(prefix.length()).replaceFirst("^/+", "");
+                String pattern = prefix;
 
-            defaults.put(key, value);
+                if (pattern.startsWith(CLASSPATH_URL_PREFIX)) {
+                    pattern = CLASSPATH_ALL_URL_PREFIX + pattern.substring(CLASSPATH_URL_PREFIX.length());
+                }
+
+                for (Resource location : context.getResources(pattern)) {
+                    if (location.isFile()) {
+                        paths.add(location.getFile().toPath().resolve(relative));
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            log.warn("Cannot watch {}: {}", name, exception.getMessage());
         }
 
-        model.mergeAttributes(defaults.asMap());
+        return paths;
     }
 
-    private Properties getDefaultAttributesFor(String name) {
+    private Map<String,Object> getDefaultAttributesFor(String view) {
         Properties properties = null;
 
         try {
+            String name = view;
+
             name = prependIfMissing(name, resolver.getPrefix());
             name = removeEnd(name, resolver.getSuffix());
             name = appendIfMissing(name, ".model.properties");
 
-            properties = new PropertiesFactory(context.getResources(name)).getObject();
+            Resource[] resources = context.getResources(name);
+
+            if (watcher != null) {
+                watcher.register(this, view, getWatchPathsFor(name, resources));
+            }
+
+            properties = new PropertiesFactory(resources).getObject();
         } catch (RuntimeException exception) {
             throw exception;
         } catch (Exception exception) {
             throw new IllegalStateException(exception);
         }
 
-        return properties;
+        Map<String,Object> map = new LinkedHashMap<>();
+
+        for (Map.Entry<Object,Object> entry : properties.entrySet()) {
+            String key = entry.getKey().toString();
+            String value = entry.getValue().toString();
+
+            while (value != null) {
+                String unresolved = value;
+
+                value = context.getEnvironment().resolvePlaceholders(unresolved);
+
+                if (unresolved.equals(value)) {
+                    break;
+                }
+            }
+
+            map.put(key, value);
+        }
+
+        return Collections.unmodifiableMap(map);
     }
 
     /**
-     * See {@link RequireJS#getSetupJavaScript(String)}.
+     * See {@link RequireJS#getSetupJavaScript(String)}.  The script is
+     * generated once (and again after a context refresh) and served with
+     * a strong {@code ETag} (conditional requests receive
+     * {@code 304 Not Modified}), {@code Cache-Control: public,
+     * max-age=86400}, and a precompressed {@code gzip} variant.
+     *
+     * @param   acceptEncoding  The {@code Accept-Encoding} header.
      *
      * @return  The set-up javascript.
      */
     @ResponseBody
-    @RequestMapping(value = "/webjarsjs", produces = "application/javascript")
-    public String webjarsjs() {
-        return RequireJS.getSetupJavaScript("/webjars/");
+    @RequestMapping(value = "/webjarsjs", method = { GET, HEAD }, produces = "application/javascript")
+    public ResponseEntity<byte[]> webjarsjs(@RequestHeader(value = ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        SetupJavaScript setup = AbstractController.setup;
+
+        if (setup == null) {
+            AbstractController.setup = setup = new SetupJavaScript(RequireJS.getSetupJavaScript("/webjars/"));
+        }
+
+        ResponseEntity.BodyBuilder builder =
+            ResponseEntity.ok()
+            .cacheControl(WEBJARSJS_CACHE_CONTROL)
+            .varyBy(ACCEPT_ENCODING);
+        /*
+         * The (quoted) ETag is checked and 304 sent by the HttpEntity
+         * return value handler.
+         */
+        ResponseEntity<byte[]> entity = null;
+
+        if (setup.gzip != null && WebJarsResourceController.accepts(acceptEncoding, GZIP)) {
+            entity = builder.eTag(setup.hash + "-" + GZIP).header(CONTENT_ENCODING, GZIP).body(setup.gzip);
+        } else {
+            entity = builder.eTag(setup.hash).body(setup.bytes);
+        }
+
+        return entity;
     }
 
     @RequestMapping(value = "${server.error.path:${error.path:/error}}")
@@ -157,17 +556,210 @@ public abstract class AbstractController implements ErrorController {
     @ExceptionHandler
     @ResponseStatus(value = NOT_FOUND)
     public String handleNOT_FOUND(Model model, NoSuchElementException exception) {
-        return handle(model, exception);
+        return handle(model, exception, NOT_FOUND);
     }
 
     @ExceptionHandler
     @ResponseStatus(value = INTERNAL_SERVER_ERROR)
     public String handle(Model model, Exception exception) {
-        addDefaultModelAttributesTo(model);
+        return handle(model, exception, INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Method to get the {@link ErrorPageCache} configured with
+     * {@code error.cache.ttl} (default {@code 0}, disabled) and
+     * {@code error.cache.detail-interval}.  Enable only if the error view
+     * renders no per-request content for anonymous requests: a cached page
+     * is written to every client requesting the same view, status, and
+     * locale.
+     *
+     * @return  The {@link ErrorPageCache} or {@code null} if disabled.
+     */
+    public ErrorPageCache getErrorPageCache() { return errorPageCache; }
+
+    /*
+     * Without an ErrorPageCache (or when a detailed render is permitted)
+     * the view is rendered with the exception.  Otherwise, the page
+     * rendered without the exception is written from the cache and null
+     * is returned (the request is handled).  The default model attributes
+     * are only added if the view is rendered.
+     */
+    private String handle(Model model, Exception exception, HttpStatus status) {
+        String view = getViewName();
+
+        if (errorPageCache != null) {
+            RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+
+            if (attributes instanceof ServletRequestAttributes) {
+                HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+                HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+
+                if (response != null && (! response.isCommitted()) && isAnonymous(request)
+                    && (! errorPageCache.tryDetail(view, status.value()))
+                    && write(model, view, status, request, response)) {
+                    view = null;
+                }
+            }
+        }
+
+        if (view != null) {
+            addDefaultModelAttributesTo(model);
+            model.addAttribute("exception", exception);
+        }
+
+        return view;
+    }
+
+    /*
+     * Cached pages must not contain per-request content so the cache is
+     * bypassed for requests with a session, an authenticated principal, a
+     * CSRF token, or flash attributes.
+     */
+    private static boolean isAnonymous(HttpServletRequest request) {
+        Map<String,?> flash = RequestContextUtils.getInputFlashMap(request);
+
+        return (request.getSession(false) == null
+                && request.getUserPrincipal() == null
+                && request.getAttribute(CSRF_TOKEN) == null
+                && (flash == null || flash.isEmpty()));
+    }
+
+    private boolean write(Model model, String view, HttpStatus status,
+                          HttpServletRequest request, HttpServletResponse response) {
+        boolean written = false;
+
+        try {
+            Locale locale = RequestContextUtils.getLocale(request);
+            ErrorPageCache.Page page = errorPageCache.get(view, status.value(), locale);
+
+            if (page == null) {
+                ThymeleafViewResolver resolver = context.getBeanProvider(ThymeleafViewResolver.class).getIfUnique();
+                View resolved = (resolver != null) ? resolver.resolveViewName(view, locale) : null;
+
+                if (resolved != null) {
+                    ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+
+                    addDefaultModelAttributesTo(model);
+                    wrapper.setStatus(status.value());
+                    resolved.render(model.asMap(), request, wrapper);
+                    /*
+                     * The render may have created a session (e.g., for a
+                     * CSRF token): the page is written but not cached.
+                     */
+                    if (isAnonymous(request)) {
+                        page =
+                            errorPageCache.put(view, status.value(), locale,
+                                               wrapper.getContentType(), wrapper.getContentAsByteArray());
+                    } else {
+                        page = new ErrorPageCache.Page(wrapper.getContentType(), wrapper.getContentAsByteArray(), 0);
+                    }
+                }
+            }
+
+            if (page != null) {
+                response.setStatus(status.value());
+
+                if (page.contentType != null) {
+                    response.setContentType(page.contentType);
+                }
+
+                response.setContentLength(page.body.length);
+                response.getOutputStream().write(page.body);
+
+                written = true;
+            }
+        } catch (Exception exception) {
+            log.warn("Cannot render {} error page: {}", view, exception.getMessage());
+        }
+
+        return written;
+    }
+
+    /*
+     * Isolates the Micrometer references (micrometer-core is optional).
+     * The MetricsDialect is shared by all controllers.
+     */
+    private static class Metrics {
+        public static MetricsDialect dialect(ApplicationContext context,
+                                             SpringTemplateEngine engine, WebJarsDialect webjars) {
+            MetricsDialect dialect =
+                engine.getDialects().stream()
+                .filter(MetricsDialect.class::isInstance)
+                .map(MetricsDialect.class::cast)
+                .findFirst().orElse(null);
+
+            if (dialect == null) {
+                io.micrometer.core.instrument.MeterRegistry registry =
+                    context.getBeanProvider(io.micrometer.core.instrument.MeterRegistry.class).getIfUnique();
+
+                if (registry != null) {
+                    dialect = new MetricsDialect(registry);
 
-        model.addAttribute("exception", exception);
+                    engine.addDialect(dialect);
 
-        return getViewName();
+                    if (webjars != null) {
+                        dialect.instrument(webjars);
+                    }
+                }
+            }
+
+            return dialect;
+        }
+    }
+
+    @ToString(onlyExplicitlyIncluded = true)
+    private static class SetupJavaScript {
+        @ToString.Include
+        private final String hash;
+        private final byte[] bytes;
+        private final byte[] gzip;
+
+        public SetupJavaScript(String script) {
+            bytes = script.getBytes(UTF_8);
+            hash = DigestUtils.md5DigestAsHex(bytes);
+            gzip = gzip(bytes);
+        }
+
+        private static byte[] gzip(byte[] bytes) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+            byte[] gzip = null;
+
+            try {
+                try (GZIPOutputStream stream = new GZIPOutputStream(out)) {
+                    stream.write(bytes);
+                }
+
+                if (out.size() < bytes.length) {
+                    gzip = out.toByteArray();
+                }
+            } catch (IOException exception) {
+            }
+
+            return gzip;
+        }
+    }
+
+    /*
+     * Discards the resolved default model attributes on a Spring Cloud
+     * EnvironmentChangeEvent.  The supported event types are resolved (and
+     * cached) by the event multicaster so other events are never
+     * delivered.
+     */
+    @ToString
+    private class EnvironmentChangeListener implements GenericApplicationListener {
+        private final Class<?> type;
+
+        public EnvironmentChangeListener(Class<?> type) { this.type = type; }
+
+        @Override
+        public boolean supportsEventType(ResolvableType eventType) {
+            return type.isAssignableFrom(eventType.toClass());
+        }
+
+        @Override
+        public void onApplicationEvent(ApplicationEvent event) {
+            viewDefaultAttributesMap.clear();
+        }
     }
 
     @ToString
@@ -186,4 +778,134 @@ public abstract class AbstractController implements ErrorController {
             }
         }
     }
+
+    private void reload(String view) {
+        try {
+            viewDefaultAttributesMap.put(view, getDefaultAttributesFor(view));
+
+            log.debug("Reloaded {} model attributes", view);
+        } catch (RuntimeException | ExceptionInInitializerError exception) {
+            log.warn("Cannot reload {} model attributes: {}", view, exception.getMessage());
+        }
+    }
+
+    /*
+     * Watches the file system template directories of each view's
+     * .model.properties (whether or not the file exists yet) and
+     * re-resolves (only) the affected (controller, view) pairs.  A
+     * single WatchService and daemon thread is shared by all controllers
+     * (and each directory is registered once); it is closed when the last
+     * controller releases it.  Requests continue to use the previous map
+     * until the new one is in place.
+     */
+    @ToString
+    private static class ModelPropertiesWatcher implements Runnable, Closeable {
+        private static ModelPropertiesWatcher shared = null;
+
+        private final WatchService service;
+        private final ConcurrentHashMap<Path,Set<Watched>> watched = new ConcurrentHashMap<>();
+        private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+        @ToString.Exclude
+        private final Thread thread;
+        private int users = 0;
+
+        private ModelPropertiesWatcher() throws IOException {
+            service = FileSystems.getDefault().newWatchService();
+            thread = new Thread(this, getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public static synchronized ModelPropertiesWatcher acquire() throws IOException {
+            if (shared == null) {
+                shared = new ModelPropertiesWatcher();
+            }
+
+            shared.users += 1;
+
+            return shared;
+        }
+
+        public void release(AbstractController controller) {
+            for (Set<Watched> set : watched.values()) {
+                set.removeIf(t -> t.controller == controller);
+            }
+
+            synchronized (ModelPropertiesWatcher.class) {
+                users -= 1;
+
+                if (users <= 0) {
+                    close();
+
+                    if (shared == this) {
+                        shared = null;
+                    }
+                }
+            }
+        }
+
+        public void register(AbstractController controller, String view, Set<Path> paths) {
+            for (Path path : paths) {
+                path = path.toAbsolutePath().normalize();
+
+                Path directory = path.getParent();
+
+                try {
+                    if (directory != null && Files.isDirectory(directory) && (! directories.contains(directory))) {
+                        directory.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                        directories.add(directory);
+                    }
+
+                    watched.computeIfAbsent(path, k -> ConcurrentHashMap.newKeySet())
+                        .add(new Watched(controller, view));
+                } catch (IOException | ClosedWatchServiceException exception) {
+                    log.warn("Cannot watch {}: {}", directory, exception.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    WatchKey key = service.take();
+                    Path directory = (Path) key.watchable();
+                    Set<Watched> changed = new LinkedHashSet<>();
+
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path) {
+                            Set<Watched> set = watched.get(directory.resolve((Path) event.context()));
+
+                            if (set != null) {
+                                changed.addAll(set);
+                            }
+                        }
+                    }
+
+                    key.reset();
+
+                    for (Watched entry : changed) {
+                        entry.controller.reload(entry.view);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException exception) {
+            }
+        }
+
+        @Override
+        public void close() {
+            thread.interrupt();
+
+            try {
+                service.close();
+            } catch (IOException exception) {
+            }
+        }
+    }
+
+    @AllArgsConstructor @EqualsAndHashCode
+    private static class Watched {
+        private final AbstractController controller;
+        private final String view;
+    }
 }
@@ -0,0 +1,247 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caching {@link PasswordEncoder} wrapper.  Remembers recently verified
+ * (raw, encoded) pairs so that repeated
+ * {@link #matches(CharSequence,String)} calls (e.g., HTTP Basic
+ * authentication on every request) cost one HMAC instead of a full
+ * (e.g., 1000-round MD5-CRYPT) hash.  Entries are keyed by the encoded
+ * password and an HMAC of the raw password under a random per-instance
+ * key; the raw password is never retained.  Only successful matches are
+ * cached.  Entries expire after a fixed time-to-live and the
+ * least-recently used entry is evicted once the maximum size is reached.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class CachingPasswordEncoder implements PasswordEncoder {
+    private static final String HMAC = "HmacSHA256";
+
+    /**
+     * Default maximum number of cached entries.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /**
+     * Default entry time-to-live.
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    @ToString.Include
+    private final PasswordEncoder delegate;
+    @ToString.Include
+    private final int maximumSize;
+    @ToString.Include
+    private final Duration ttl;
+    private final ThreadLocal<Mac> mac;
+    private final Map<Key,Long> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Construct a cache with {@link #DEFAULT_MAXIMUM_SIZE} and
+     * {@link #DEFAULT_TTL}.
+     *
+     * @param   delegate        The {@link PasswordEncoder} to wrap.
+     */
+    public CachingPasswordEncoder(PasswordEncoder delegate) {
+        this(delegate, DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Sole non-default constructor.
+     *
+     * @param   delegate        The {@link PasswordEncoder} to wrap.
+     * @param   maximumSize     The maximum number of cached entries.
+     * @param   ttl             The entry time-to-live.
+     */
+    public CachingPasswordEncoder(@NonNull PasswordEncoder delegate, int maximumSize, @NonNull Duration ttl) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        this.delegate = delegate;
+        this.maximumSize = maximumSize;
+        this.ttl = ttl;
+
+        byte[] bytes = new byte[32];
+
+        new SecureRandom().nextBytes(bytes);
+
+        SecretKeySpec key = new SecretKeySpec(bytes, HMAC);
+
+        this.mac = ThreadLocal.withInitial(() -> mac(key));
+        this.map = new LinkedHashMap<Key,Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Long> eldest) {
+                boolean remove = size() > CachingPasswordEncoder.this.maximumSize;
+
+                if (remove) {
+                    evictions.increment();
+                }
+
+                return remove;
+            }
+        };
+    }
+
+    private static Mac mac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+
+            mac.init(key);
+
+            return mac;
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    @Override
+    public String encode(CharSequence raw) {
+        return delegate.encode(raw);
+    }
+
+    @Override
+    public boolean matches(CharSequence raw, String encoded) {
+        if (raw == null || encoded == null) {
+            return delegate.matches(raw, encoded);
+        }
+
+        Key key = new Key(encoded, hmac(raw));
+        long now = System.nanoTime();
+
+        synchronized (map) {
+            Long expires = map.get(key);
+
+            if (expires != null) {
+                if (expires - now > 0) {
+                    hits.increment();
+
+                    return true;
+                }
+
+                map.remove(key);
+                evictions.increment();
+            }
+        }
+
+        misses.increment();
+
+        boolean matches = delegate.matches(raw, encoded);
+
+        if (matches) {
+            synchronized (map) {
+                map.put(key, now + ttl.toNanos());
+            }
+        }
+
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encoded) {
+        return delegate.upgradeEncoding(encoded);
+    }
+
+    private byte[] hmac(CharSequence raw) {
+        Mac mac = this.mac.get();
+
+        mac.update(UTF_8.encode(CharBuffer.wrap(raw)));
+
+        return mac.doFinal();
+    }
+
+    /**
+     * Method to discard all cached entries.
+     */
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    /**
+     * Method to get the number of cached entries.
+     *
+     * @return  The number of cached entries.
+     */
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    /**
+     * Method to get the number of {@link #matches(CharSequence,String)}
+     * calls answered from the cache.
+     *
+     * @return  The hit count.
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * Method to get the number of {@link #matches(CharSequence,String)}
+     * calls delegated to the wrapped {@link PasswordEncoder}.
+     *
+     * @return  The miss count.
+     */
+    public long getMisses() { return misses.sum(); }
+
+    /**
+     * Method to get the number of entries evicted because they expired or
+     * because the cache was full.
+     *
+     * @return  The eviction count.
+     */
+    public long getEvictions() { return evictions.sum(); }
+
+    @AllArgsConstructor @EqualsAndHashCode
+    private static class Key {
+        private final String encoded;
+        private final byte[] hmac;
+    }
+}
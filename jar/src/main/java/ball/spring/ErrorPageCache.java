@@ -0,0 +1,248 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Rendered error page cache for {@link AbstractController} exception
+ * handling.  During an error storm every failing request would otherwise
+ * resolve the default model attributes and render the error view; with
+ * this cache the page rendered without exception detail is kept per
+ * (view, status, {@link Locale}) for a short time-to-live and written
+ * directly.  A detailed (with the {@code exception} model attribute)
+ * render is permitted at most once per detail interval per (view,
+ * status).  Cached pages are written to every client so they must not
+ * contain per-request content (CSRF fields, user names, flash messages,
+ * etc.); {@link AbstractController} bypasses the cache for requests with
+ * a session, an authenticated principal, a CSRF token, or flash
+ * attributes.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class ErrorPageCache {
+    /**
+     * Default maximum number of cached pages.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    @ToString.Include
+    private final int maximumSize;
+    @ToString.Include
+    private final Duration ttl;
+    @ToString.Include
+    private final Duration detailInterval;
+    private final Map<Key,Page> pages;
+    private final Map<Key,Long> details;
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder detailRenders = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Sole constructor.
+     *
+     * @param   maximumSize     The maximum number of cached pages.
+     * @param   ttl             The page time-to-live.
+     * @param   detailInterval  The minimum interval between detailed
+     *                          renders of a (view, status)
+     *                          ({@link Duration#ZERO} to never render
+     *                          detail).
+     */
+    public ErrorPageCache(int maximumSize, @NonNull Duration ttl, @NonNull Duration detailInterval) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        if (detailInterval.isNegative()) {
+            throw new IllegalArgumentException("detailInterval must not be negative");
+        }
+
+        this.maximumSize = maximumSize;
+        this.ttl = ttl;
+        this.detailInterval = detailInterval;
+        this.pages = lru(maximumSize);
+        this.details = lru(maximumSize);
+    }
+
+    private <T> Map<Key,T> lru(int maximumSize) {
+        return new LinkedHashMap<Key,T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,T> eldest) {
+                boolean remove = size() > maximumSize;
+
+                if (remove) {
+                    evictions.increment();
+                }
+
+                return remove;
+            }
+        };
+    }
+
+    /*
+     * Returns true (and starts a new interval) if a detailed render of
+     * (view, status) is permitted now.
+     */
+    boolean tryDetail(String view, int status) {
+        boolean permitted = false;
+
+        if (! detailInterval.isZero()) {
+            Key key = new Key(view, status, null);
+            long now = System.nanoTime();
+
+            synchronized (details) {
+                Long next = details.get(key);
+
+                permitted = (next == null || next - now <= 0);
+
+                if (permitted) {
+                    details.put(key, now + detailInterval.toNanos());
+                }
+            }
+
+            if (permitted) {
+                detailRenders.increment();
+            }
+        }
+
+        return permitted;
+    }
+
+    /*
+     * Returns the unexpired page (counted as a suppressed render) or null.
+     */
+    Page get(String view, int status, Locale locale) {
+        Key key = new Key(view, status, locale);
+        Page page = null;
+
+        synchronized (pages) {
+            page = pages.get(key);
+
+            if (page != null && page.expires - System.nanoTime() <= 0) {
+                pages.remove(key);
+                evictions.increment();
+                page = null;
+            }
+        }
+
+        if (page != null) {
+            suppressed.increment();
+        }
+
+        return page;
+    }
+
+    Page put(String view, int status, Locale locale, String contentType, byte[] body) {
+        Page page = new Page(contentType, body, System.nanoTime() + ttl.toNanos());
+
+        synchronized (pages) {
+            pages.put(new Key(view, status, locale), page);
+        }
+
+        renders.increment();
+
+        return page;
+    }
+
+    /**
+     * Method to discard all cached pages and detail intervals.
+     */
+    public void clear() {
+        synchronized (pages) {
+            pages.clear();
+        }
+
+        synchronized (details) {
+            details.clear();
+        }
+    }
+
+    /**
+     * Method to get the number of cached pages.
+     *
+     * @return  The number of cached pages.
+     */
+    public int size() {
+        synchronized (pages) {
+            return pages.size();
+        }
+    }
+
+    /**
+     * Method to get the number of (cached) renders without detail.
+     *
+     * @return  The render count.
+     */
+    public long getRenders() { return renders.sum(); }
+
+    /**
+     * Method to get the number of detailed renders permitted.
+     *
+     * @return  The detailed render count.
+     */
+    public long getDetailRenders() { return detailRenders.sum(); }
+
+    /**
+     * Method to get the number of renders suppressed (responses written
+     * from the cache).
+     *
+     * @return  The suppressed render count.
+     */
+    public long getSuppressed() { return suppressed.sum(); }
+
+    /**
+     * Method to get the number of entries evicted because they expired or
+     * because the cache was full.
+     *
+     * @return  The eviction count.
+     */
+    public long getEvictions() { return evictions.sum(); }
+
+    @AllArgsConstructor @EqualsAndHashCode
+    private static class Key {
+        private final String view;
+        private final int status;
+        private final Locale locale;
+    }
+
+    @AllArgsConstructor @ToString(onlyExplicitlyIncluded = true)
+    static class Page {
+        @ToString.Include
+        final String contentType;
+        final byte[] body;
+        final long expires;
+    }
+}
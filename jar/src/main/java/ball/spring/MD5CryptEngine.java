@@ -0,0 +1,262 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * MD5-CRYPT engine.  Each thread reuses a single {@link MessageDigest}
+ * and preallocated password, salt, digest, and output buffers so a hash
+ * requires no per-round allocation and no intermediate {@link String}s.
+ * Instances are not thread-safe; callers obtain the calling thread's
+ * instance with {@link #get()}.
+ *
+ * @see MD5CryptPasswordEncoder
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+final class MD5CryptEngine {
+    static final String MAGIC = "$1$";
+    static final int SALT_LENGTH = 8;
+
+    private static final String MD5 = "md5";
+    private static final int ROUNDS = 1000;
+    private static final int HASH_LENGTH = 22;
+    private static final byte[] MAGIC_BYTES = { '$', '1', '$' };
+    private static final char[] ITOA64 =
+        "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private static final ThreadLocal<MD5CryptEngine> LOCAL = ThreadLocal.withInitial(MD5CryptEngine::new);
+
+    /**
+     * Method to get the calling thread's {@link MD5CryptEngine}.
+     *
+     * @return  The {@link MD5CryptEngine}.
+     */
+    static MD5CryptEngine get() { return LOCAL.get(); }
+
+    private final MessageDigest md5;
+    private final byte[] digest = new byte[16];
+    private final byte[] salt = new byte[4 * SALT_LENGTH];
+    private byte[] password = new byte[64];
+    private final char[] out = new char[MAGIC.length() + SALT_LENGTH + 1 + HASH_LENGTH];
+
+    private MD5CryptEngine() {
+        try {
+            md5 = MessageDigest.getInstance(MD5);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Method to calculate the MD5-CRYPT hash of a password.
+     *
+     * @param   raw             The raw password.
+     * @param   salt            The salt (truncated to
+     *                          {@value #SALT_LENGTH} characters).
+     *
+     * @return  The {@code $1$salt$hash} {@link String}.
+     */
+    String encode(CharSequence raw, CharSequence salt) {
+        return new String(out, 0, crypt(raw, salt, 0, salt.length()));
+    }
+
+    /**
+     * Method to verify a password against an MD5-CRYPT hash.
+     *
+     * @param   raw             The raw password.
+     * @param   salt            The {@link CharSequence} containing the
+     *                          salt.
+     * @param   start           The start index of the salt.
+     * @param   end             The end index of the salt.
+     * @param   encoded         The expected {@code $1$salt$hash}.
+     *
+     * @return  {@code true} if the computed hash equals {@code encoded};
+     *          {@code false} otherwise.
+     */
+    boolean matches(CharSequence raw, CharSequence salt, int start, int end, String encoded) {
+        int length = crypt(raw, salt, start, end);
+        int diff = length ^ encoded.length();
+
+        for (int i = 0, n = Math.min(length, encoded.length()); i < n; i += 1) {
+            diff |= out[i] ^ encoded.charAt(i);
+        }
+
+        return diff == 0;
+    }
+
+    private int crypt(CharSequence raw, CharSequence chars, int start, int end) {
+        if (end - start > SALT_LENGTH) {
+            end = start + SALT_LENGTH;
+        }
+
+        int passwordLength = utf8(raw, 0, raw.length());
+        byte[] password = this.password;
+        int saltLength = utf8(chars, start, end, salt);
+
+        update(password, 0, passwordLength);
+        update(salt, 0, saltLength);
+        update(password, 0, passwordLength);
+        digest(digest);
+
+        update(password, 0, passwordLength);
+        update(MAGIC_BYTES, 0, MAGIC_BYTES.length);
+        update(salt, 0, saltLength);
+
+        for (int i = passwordLength; i > 0; i -= 16) {
+            update(digest, 0, (i > 16) ? 16 : i);
+        }
+
+        Arrays.fill(digest, (byte) 0);
+
+        for (int i = passwordLength; i != 0; i >>>= 1) {
+            if ((i & 1) != 0) {
+                update(digest, 0, 1);
+            } else {
+                update(password, 0, 1);
+            }
+        }
+
+        digest(digest);
+
+        for (int i = 0; i < ROUNDS; i += 1) {
+            if ((i & 1) != 0) {
+                update(password, 0, passwordLength);
+            } else {
+                update(digest, 0, 16);
+            }
+
+            if ((i % 3) != 0) {
+                update(salt, 0, saltLength);
+            }
+
+            if ((i % 7) != 0) {
+                update(password, 0, passwordLength);
+            }
+
+            if ((i & 1) != 0) {
+                update(digest, 0, 16);
+            } else {
+                update(password, 0, passwordLength);
+            }
+
+            digest(digest);
+        }
+
+        Arrays.fill(password, 0, passwordLength, (byte) 0);
+
+        int length = 0;
+
+        for (int i = 0; i < MAGIC_BYTES.length; i += 1) {
+            out[length++] = (char) MAGIC_BYTES[i];
+        }
+
+        for (int i = start; i < end; i += 1) {
+            out[length++] = chars.charAt(i);
+        }
+
+        out[length++] = '$';
+
+        byte[] bytes = digest;
+
+        length = itoa64(length, bytes[0], bytes[6], bytes[12], 4);
+        length = itoa64(length, bytes[1], bytes[7], bytes[13], 4);
+        length = itoa64(length, bytes[2], bytes[8], bytes[14], 4);
+        length = itoa64(length, bytes[3], bytes[9], bytes[15], 4);
+        length = itoa64(length, bytes[4], bytes[10], bytes[5], 4);
+        length = itoa64(length, (byte) 0, (byte) 0, bytes[11], 2);
+
+        return length;
+    }
+
+    private int itoa64(int offset, byte b0, byte b1, byte b2, int size) {
+        int value = ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+
+        while (--size >= 0) {
+            out[offset++] = ITOA64[value & 0x3f];
+            value >>>= 6;
+        }
+
+        return offset;
+    }
+
+    private int utf8(CharSequence chars, int start, int end) {
+        int capacity = 3 * (end - start);
+
+        if (password.length < capacity) {
+            Arrays.fill(password, (byte) 0);
+            password = new byte[Math.max(capacity, 2 * password.length)];
+        }
+
+        return utf8(chars, start, end, password);
+    }
+
+    /*
+     * Same encoding as String.getBytes(UTF_8): unpaired surrogates are
+     * replaced with '?'.
+     */
+    private static int utf8(CharSequence chars, int start, int end, byte[] bytes) {
+        int length = 0;
+
+        for (int i = start; i < end; i += 1) {
+            char ch = chars.charAt(i);
+
+            if (ch < 0x80) {
+                bytes[length++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[length++] = (byte) (0xc0 | (ch >> 6));
+                bytes[length++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch)
+                    && (i + 1) < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(ch, chars.charAt(++i));
+
+                    bytes[length++] = (byte) (0xf0 | (cp >> 18));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    bytes[length++] = '?';
+                }
+            } else {
+                bytes[length++] = (byte) (0xe0 | (ch >> 12));
+                bytes[length++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+
+        return length;
+    }
+
+    private void update(byte[] bytes, int offset, int length) {
+        md5.update(bytes, offset, length);
+    }
+
+    private void digest(byte[] bytes) {
+        try {
+            md5.digest(bytes, 0, bytes.length);
+        } catch (DigestException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -18,32 +18,70 @@ package ball.spring;
  * limitations under the License.
  * ##########################################################################
  */
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.factory.PasswordEncoderFactories;
 import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * Dovecot compatible {@link PasswordEncoder} implementation.  MD5-CRYPT
  * reference implementation available at
  * {@link.uri https://github.com/dovecot/core/blob/master/src/auth/password-scheme-md5crypt.c target=newtab password-scheme-md5crypt.c}.
+ * SHA256-CRYPT and SHA512-CRYPT are also supported (with a configurable
+ * number of {@code rounds=} for encoding; see
+ * {@link #calibrated(String,Duration)}).  Unprefixed {@code $1$},
+ * {@code $2a$}/{@code $2b$}/{@code $2y$}, {@code $5$}, and {@code $6$}
+ * hashes are recognized and verified directly.
  *
  * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
  */
 @Service
 @ToString @Log4j2
 public class MD5CryptPasswordEncoder extends DelegatingPasswordEncoder {
-    private static final String MD5_CRYPT = "MD5-CRYPT";
+    private static final String PREFIX = "{";
+    private static final String SUFFIX = "}";
+
+    /**
+     * MD5-CRYPT ({@code $1$}) scheme id.
+     */
+    public static final String MD5_CRYPT = "MD5-CRYPT";
+
+    /**
+     * SHA256-CRYPT ({@code $5$}) scheme id.
+     */
+    public static final String SHA256_CRYPT = "SHA256-CRYPT";
+
+    /**
+     * SHA512-CRYPT ({@code $6$}) scheme id.
+     */
+    public static final String SHA512_CRYPT = "SHA512-CRYPT";
+
+    private static final String BCRYPT = "bcrypt";
     private static final HashMap<String,PasswordEncoder> MAP = new HashMap<>();
+    private static final HashMap<String,PasswordEncoder> SNIFFED = new HashMap<>();
 
     static {
         MAP.put(MD5_CRYPT, MD5Crypt.INSTANCE);
@@ -51,172 +89,587 @@ public class MD5CryptPasswordEncoder extends DelegatingPasswordEncoder {
         MAP.put("CLEARTEXT", NoCrypt.INSTANCE);
         MAP.put("PLAIN", NoCrypt.INSTANCE);
         MAP.put("PLAINTEXT", NoCrypt.INSTANCE);
+
+        SNIFFED.put(MD5_CRYPT, MD5Crypt.INSTANCE);
+        SNIFFED.put(SHA256_CRYPT, new SHACrypt(SHACryptEngine::sha256, SHACryptEngine.ROUNDS_DEFAULT));
+        SNIFFED.put(SHA512_CRYPT, new SHACrypt(SHACryptEngine::sha512, SHACryptEngine.ROUNDS_DEFAULT));
+        SNIFFED.put(BCRYPT, new BCryptPasswordEncoder());
+    }
+
+    private static final SecureRandom SEED = new SecureRandom();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(MD5CryptPasswordEncoder::random);
+
+    private static SecureRandom random() {
+        SecureRandom random = null;
+        byte[] seed = new byte[32];
+
+        SEED.nextBytes(seed);
+
+        try {
+            random = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException exception) {
+            random = new SecureRandom();
+        }
+
+        random.setSeed(seed);
+
+        return random;
     }
 
-    private static final Random RANDOM = new Random();
+    /**
+     * {@link ForkJoinPool} for {@link #matches(Collection)}.  Defaults to
+     * {@link ForkJoinPool#commonPool()}.
+     */
+    @Getter @Setter @NonNull
+    private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
 
     /**
-     * Sole constructor.
+     * If {@code true}, {@link #upgradeEncoding(String)} reports every
+     * MD5-CRYPT and cleartext encoding as requiring an upgrade.  Intended
+     * to be used with {@link RehashingPasswordEncoder} to migrate to a
+     * stronger scheme.
+     */
+    @Getter @Setter
+    private boolean upgradeLegacyEncodings = false;
+
+    private volatile AdmissionControl admissionControl = null;
+
+    /**
+     * Construct an instance that encodes with {@link #MD5_CRYPT}.
      */
     public MD5CryptPasswordEncoder() {
-        super(MD5_CRYPT, MAP);
+        this(MD5_CRYPT, SHACryptEngine.ROUNDS_DEFAULT);
+    }
+
+    /**
+     * Sole non-default constructor.
+     *
+     * @param   idForEncode     The id of the scheme {@link #encode(CharSequence)}
+     *                          uses (e.g., {@link #MD5_CRYPT},
+     *                          {@link #SHA256_CRYPT}, or
+     *                          {@link #SHA512_CRYPT}).
+     * @param   rounds          The number of SHA-CRYPT rounds
+     *                          {@link #encode(CharSequence)} uses.
+     */
+    public MD5CryptPasswordEncoder(String idForEncode, int rounds) {
+        super(idForEncode, map(rounds));
 
         setDefaultPasswordEncoderForMatches(PasswordEncoderFactories.createDelegatingPasswordEncoder());
     }
 
-    @NoArgsConstructor @ToString
-    private static class NoCrypt implements PasswordEncoder {
-        private static final String SALT = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
-        private static final String ITOA64 = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static Map<String,PasswordEncoder> map(int rounds) {
+        HashMap<String,PasswordEncoder> map = new HashMap<>(MAP);
 
-        public static final NoCrypt INSTANCE = new NoCrypt();
+        map.put(SHA256_CRYPT, new SHACrypt(SHACryptEngine::sha256, rounds));
+        map.put(SHA512_CRYPT, new SHACrypt(SHACryptEngine::sha512, rounds));
 
-        @Override
-        public String encode(CharSequence raw) {
-            return raw.toString();
+        return map;
+    }
+
+    /**
+     * Method to construct an instance that encodes with a SHA-CRYPT scheme
+     * using the number of rounds calibrated (see
+     * {@link #calibrate(String,Duration)}) to take approximately
+     * {@code target} per hash on this hardware.  Typically called once at
+     * start-up from a {@code @Bean} method.
+     *
+     * @param   idForEncode     {@link #SHA256_CRYPT} or
+     *                          {@link #SHA512_CRYPT}.
+     * @param   target          The target per-hash latency.
+     *
+     * @return  The calibrated {@link MD5CryptPasswordEncoder}.
+     */
+    public static MD5CryptPasswordEncoder calibrated(String idForEncode, Duration target) {
+        return new MD5CryptPasswordEncoder(idForEncode, calibrate(idForEncode, target));
+    }
+
+    /**
+     * Method to measure the number of SHA-CRYPT rounds that take
+     * approximately {@code target} per hash on this hardware.
+     *
+     * @param   id              {@link #SHA256_CRYPT} or
+     *                          {@link #SHA512_CRYPT}.
+     * @param   target          The target per-hash latency.
+     *
+     * @return  The number of rounds (clamped to the SHA-CRYPT limits).
+     *
+     * @throws  IllegalArgumentException
+     *                          If {@code id} is not a SHA-CRYPT scheme.
+     */
+    public static int calibrate(String id, Duration target) {
+        SHACryptEngine engine = null;
+
+        if (SHA256_CRYPT.equals(id)) {
+            engine = SHACryptEngine.sha256();
+        } else if (SHA512_CRYPT.equals(id)) {
+            engine = SHACryptEngine.sha512();
+        } else {
+            throw new IllegalArgumentException("Not a SHA-CRYPT scheme: " + id);
         }
 
-        @Override
-        public boolean matches(CharSequence raw, String encoded) {
-            return raw.toString().equals(encoded);
+        String salt = NoCrypt.INSTANCE.salt(SHACryptEngine.SALT_LENGTH);
+        long best = Long.MAX_VALUE;
+
+        /*
+         * The first iterations warm up the JIT; the fastest observation
+         * is the least disturbed by other load.
+         */
+        for (int i = 0; i < 10; i += 1) {
+            long start = System.nanoTime();
+
+            engine.encode(salt, salt, SHACryptEngine.ROUNDS_DEFAULT);
+
+            best = Math.min(best, System.nanoTime() - start);
         }
 
-        protected String salt(int length) {
-            StringBuilder buffer = new StringBuilder();
+        double rounds = ((double) target.toNanos()) * SHACryptEngine.ROUNDS_DEFAULT / Math.max(best, 1);
+        int result =
+            (int) Math.max(SHACryptEngine.ROUNDS_MIN, Math.min(rounds, SHACryptEngine.ROUNDS_MAX));
 
-            while (buffer.length() < length) {
-                int index = (int) (RANDOM.nextFloat() * SALT.length());
+        log.info("{}: {} rounds ~ {}", id, result, target);
 
-                buffer.append(SALT.charAt(index));
-            }
+        return result;
+    }
+
+    /**
+     * Method to enable admission control:  At most {@code concurrency}
+     * threads may be hashing in {@link #encode(CharSequence)} or
+     * {@link #matches(CharSequence,String)} at once, at most {@code queue}
+     * further threads may wait (for no longer than {@code timeout}) for a
+     * permit, and any other caller is rejected immediately with
+     * {@link PasswordHashingRejectedException}.  Caps the CPU spent
+     * hashing under (e.g., credential-stuffing) load so the rest of the
+     * application stays responsive.  Batch verification
+     * ({@link #matches(Collection)}) is bounded by its own
+     * {@link ForkJoinPool} and is not subject to admission control.
+     *
+     * @param   concurrency     The maximum number of concurrent hashes.
+     * @param   queue           The maximum number of waiting callers.
+     * @param   timeout         The maximum time a caller waits.
+     */
+    public void setAdmissionControl(int concurrency, int queue, Duration timeout) {
+        admissionControl = new AdmissionControl(concurrency, queue, timeout);
+    }
+
+    /**
+     * Method to disable admission control.
+     *
+     * @see #setAdmissionControl(int,int,Duration)
+     */
+    public void disableAdmissionControl() {
+        admissionControl = null;
+    }
+
+    /**
+     * Method to get the number of callers rejected by admission control.
+     *
+     * @return  The rejected count.
+     *
+     * @see #setAdmissionControl(int,int,Duration)
+     */
+    public long getAdmissionRejected() {
+        AdmissionControl admissionControl = this.admissionControl;
+
+        return (admissionControl != null) ? admissionControl.rejected.sum() : 0;
+    }
 
-            return buffer.toString();
+    /**
+     * {@inheritDoc}
+     *
+     * @throws  PasswordHashingRejectedException
+     *                          If rejected by admission control.
+     */
+    @Override
+    public String encode(CharSequence raw) {
+        AdmissionControl admissionControl = this.admissionControl;
+
+        if (admissionControl != null) {
+            admissionControl.acquire();
+
+            try {
+                return super.encode(raw);
+            } finally {
+                admissionControl.release();
+            }
+        } else {
+            return super.encode(raw);
         }
+    }
 
-        protected String itoa64(long value, int size) {
-            StringBuilder buffer = new StringBuilder();
+    /**
+     * {@inheritDoc}
+     *
+     * @throws  PasswordHashingRejectedException
+     *                          If rejected by admission control.
+     */
+    @Override
+    public boolean matches(CharSequence raw, String encoded) {
+        AdmissionControl admissionControl = this.admissionControl;
 
-            while (--size >= 0) {
-                buffer.append(ITOA64.charAt((int) (value & 0x3f)));
+        if (admissionControl != null) {
+            admissionControl.acquire();
 
-                value >>>= 6;
+            try {
+                return verify(raw, encoded);
+            } finally {
+                admissionControl.release();
             }
+        } else {
+            return verify(raw, encoded);
+        }
+    }
+
+    private boolean verify(CharSequence raw, String encoded) {
+        PasswordEncoder encoder = (encoded != null) ? SNIFFED.get(sniff(encoded)) : null;
+
+        return (encoder != null) ? encoder.matches(raw, encoded) : super.matches(raw, encoded);
+    }
+
+    /*
+     * Recognizes unprefixed $1$, $2a$/$2b$/$2y$, $5$, and $6$ hashes.
+     */
+    private static String sniff(String encoded) {
+        String id = null;
+
+        if (encoded.length() > 3 && encoded.charAt(0) == '$') {
+            char type = encoded.charAt(1);
 
-            return buffer.toString();
+            if (encoded.charAt(2) == '$') {
+                switch (type) {
+                case '1':
+                    id = MD5_CRYPT;
+                    break;
+
+                case '5':
+                    id = SHA256_CRYPT;
+                    break;
+
+                case '6':
+                    id = SHA512_CRYPT;
+                    break;
+
+                default:
+                    break;
+                }
+            } else if (type == '2' && encoded.charAt(3) == '$') {
+                switch (encoded.charAt(2)) {
+                case 'a':
+                case 'b':
+                case 'y':
+                    id = BCRYPT;
+                    break;
+
+                default:
+                    break;
+                }
+            }
         }
+
+        return id;
     }
 
-    @NoArgsConstructor @ToString
-    private static class MD5Crypt extends NoCrypt {
-        private static final String MD5 = "md5";
-        private static final String MAGIC = "$1$";
-        private static final int SALT_LENGTH = 8;
+    /**
+     * Method to determine the scheme of an encoded password:  The
+     * {@code {id}} prefix if present; otherwise, the scheme recognized
+     * from an unprefixed crypt(3)-style hash.
+     *
+     * @param   encoded         The encoded password.
+     *
+     * @return  The scheme id or {@code null} if it cannot be determined.
+     */
+    static String scheme(String encoded) {
+        String id = id(encoded);
 
-        public static final MD5Crypt INSTANCE = new MD5Crypt();
+        if (id == null && encoded != null) {
+            id = sniff(encoded);
+        }
 
-        @Override
-        public String encode(CharSequence raw) {
-            return encode(raw.toString(), salt(SALT_LENGTH));
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * In addition to the {@link DelegatingPasswordEncoder} behavior,
+     * reports MD5-CRYPT and cleartext encodings as requiring an upgrade
+     * if {@link #isUpgradeLegacyEncodings()}.  Unprefixed crypt(3)-style
+     * hashes (which {@link DelegatingPasswordEncoder} would always report)
+     * are reported only if their recognized scheme is a legacy scheme and
+     * {@link #isUpgradeLegacyEncodings()}.
+     */
+    @Override
+    public boolean upgradeEncoding(String encoded) {
+        String id = id(encoded);
+        String sniffed = (id == null && encoded != null) ? sniff(encoded) : null;
+        boolean upgrade = false;
+
+        if (sniffed != null) {
+            upgrade = upgradeLegacyEncodings && MAP.containsKey(sniffed);
+        } else {
+            upgrade = (upgradeLegacyEncodings && MAP.containsKey(id)) || super.upgradeEncoding(encoded);
         }
 
-        private String encode(String raw, String salt) {
-            if (salt.length() > SALT_LENGTH) {
-                salt = salt.substring(0, SALT_LENGTH);
+        return upgrade;
+    }
+
+    /**
+     * Method to extract the {@code {id}} from a prefixed encoded password.
+     *
+     * @param   encoded         The encoded password.
+     *
+     * @return  The id or {@code null} if there is none.
+     */
+    static String id(String encoded) {
+        String id = null;
+
+        if (encoded != null && encoded.startsWith(PREFIX)) {
+            int end = encoded.indexOf(SUFFIX);
+
+            if (end > 0) {
+                id = encoded.substring(PREFIX.length(), end);
             }
+        }
+
+        return id;
+    }
+
+    /**
+     * Method to verify a batch of (raw, encoded) password pairs in
+     * parallel on {@link #getForkJoinPool()}.  A pair whose encoded
+     * password is malformed does not match.
+     *
+     * @param   pairs           The (raw, encoded) pairs.
+     *
+     * @return  A {@link BitSet} with bit {@code i} set if and only if the
+     *          {@code i}-th pair (in {@link Collection} iteration order)
+     *          matches.
+     */
+    public BitSet matches(Collection<? extends Map.Entry<? extends CharSequence,String>> pairs) {
+        return matches(pairs, getForkJoinPool());
+    }
+
+    /**
+     * Method to verify a batch of (raw, encoded) password pairs in
+     * parallel on the specified {@link ForkJoinPool}.
+     *
+     * @param   pairs           The (raw, encoded) pairs.
+     * @param   pool            The {@link ForkJoinPool}.
+     *
+     * @return  A {@link BitSet} with bit {@code i} set if and only if the
+     *          {@code i}-th pair (in {@link Collection} iteration order)
+     *          matches.
+     *
+     * @see #matches(Collection)
+     */
+    public BitSet matches(Collection<? extends Map.Entry<? extends CharSequence,String>> pairs, ForkJoinPool pool) {
+        Map.Entry<?,?>[] array = pairs.toArray(new Map.Entry<?,?>[0]);
+        AtomicLongArray words = new AtomicLongArray((array.length + 63) >>> 6);
 
-            return (MAGIC + salt + "$" + encode(raw.getBytes(UTF_8), salt.getBytes(UTF_8)));
+        pool.invoke(new Batch(array, 0, array.length, words));
+
+        long[] result = new long[words.length()];
+
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = words.get(i);
         }
 
-        private String encode(byte[] password, byte[] salt) {
-            byte[] bytes = null;
+        return BitSet.valueOf(result);
+    }
+
+    private boolean matchesQuietly(CharSequence raw, String encoded) {
+        boolean matches = false;
 
-            try {
-                MessageDigest ctx = MessageDigest.getInstance(MD5);
-                MessageDigest ctx1 = MessageDigest.getInstance(MD5);
+        try {
+            matches = verify(raw, encoded);
+        } catch (IllegalArgumentException exception) {
+            log.debug("{}", exception.getMessage());
+        }
 
-                ctx.update(password);
-                ctx.update(MAGIC.getBytes(UTF_8));
-                ctx.update(salt);
+        return matches;
+    }
+
+    @ToString
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 16;
+
+        @ToString.Exclude
+        private final Map.Entry<?,?>[] pairs;
+        private final int from;
+        private final int to;
+        @ToString.Exclude
+        private final AtomicLongArray words;
+
+        public Batch(Map.Entry<?,?>[] pairs, int from, int to, AtomicLongArray words) {
+            this.pairs = pairs;
+            this.from = from;
+            this.to = to;
+            this.words = words;
+        }
 
-                ctx1.update(password);
-                ctx1.update(salt);
-                ctx1.update(password);
-                bytes = ctx1.digest();
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+
+                invokeAll(new Batch(pairs, from, middle, words), new Batch(pairs, middle, to, words));
+            } else {
+                for (int i = from; i < to; i += 1) {
+                    if (matchesQuietly((CharSequence) pairs[i].getKey(), (String) pairs[i].getValue())) {
+                        long bit = 1L << i;
 
-                for (int i = password.length; i > 0;  i -= 16) {
-                    ctx.update(bytes, 0, (i > 16) ? 16 : i);
+                        words.getAndAccumulate(i >>> 6, bit, (x, y) -> x | y);
+                    }
                 }
+            }
+        }
+    }
+
+    @ToString
+    private static class AdmissionControl {
+        private final Semaphore permits;
+        private final int queue;
+        private final long timeout;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final LongAdder rejected = new LongAdder();
+
+        public AdmissionControl(int concurrency, int queue, Duration timeout) {
+            if (concurrency < 1 || queue < 0 || timeout.isNegative()) {
+                throw new IllegalArgumentException();
+            }
 
-                for (int i = 0; i < bytes.length; i += 1) {
-                    bytes[i] = 0;
+            this.permits = new Semaphore(concurrency);
+            this.queue = queue;
+            this.timeout = timeout.toNanos();
+        }
+
+        public void acquire() {
+            if (! permits.tryAcquire()) {
+                if (waiting.incrementAndGet() > queue) {
+                    waiting.decrementAndGet();
+                    reject("Too many password hashing requests waiting");
                 }
 
-                for (int i = password.length; i != 0; i >>>= 1) {
-                    if ((i & 1) != 0) {
-                        ctx.update(bytes, 0, 1);
-                    } else {
-                        ctx.update(password, 0, 1);
+                try {
+                    if (! permits.tryAcquire(timeout, NANOSECONDS)) {
+                        reject("Timed out waiting to hash password");
                     }
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    reject("Interrupted waiting to hash password");
+                } finally {
+                    waiting.decrementAndGet();
                 }
+            }
+        }
 
-                bytes = ctx.digest();
+        public void release() { permits.release(); }
 
-                for (int i = 0; i < 1000; i += 1) {
-                    ctx1 = MessageDigest.getInstance(MD5);
+        private void reject(String message) {
+            rejected.increment();
 
-                    if ((i & 1) != 0) {
-                        ctx1.update(password);
-                    } else {
-                        ctx1.update(bytes, 0, 16);
-                    }
+            throw new PasswordHashingRejectedException(message);
+        }
+    }
 
-                    if ((i % 3) != 0) {
-                        ctx1.update(salt);
-                    }
+    @NoArgsConstructor @ToString
+    private static class NoCrypt implements PasswordEncoder {
+        private static final char[] SALT =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890".toCharArray();
 
-                    if ((i % 7) != 0) {
-                        ctx1.update(password);
-                    }
+        public static final NoCrypt INSTANCE = new NoCrypt();
 
-                    if ((i & 1) != 0) {
-                        ctx1.update(bytes, 0, 16);
-                    } else {
-                        ctx1.update(password);
-                    }
+        @Override
+        public String encode(CharSequence raw) {
+            return raw.toString();
+        }
 
-                    bytes = ctx1.digest();
+        @Override
+        public boolean matches(CharSequence raw, String encoded) {
+            return raw.toString().equals(encoded);
+        }
+
+        protected String salt(int length) {
+            SecureRandom random = RANDOM.get();
+            char[] salt = new char[length];
+            byte[] bytes = new byte[length + (length >>> 1) + 1];
+            int count = 0;
+
+            while (count < length) {
+                random.nextBytes(bytes);
+
+                for (int i = 0; i < bytes.length && count < length; i += 1) {
+                    int index = bytes[i] & 0x3f;
+
+                    /*
+                     * Reject (rather than fold) the two out-of-range
+                     * values so every character is equally likely.
+                     */
+                    if (index < SALT.length) {
+                        salt[count++] = SALT[index];
+                    }
                 }
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IllegalStateException(exception);
             }
 
-            StringBuilder result =
-                new StringBuilder()
-                .append(combine(bytes[0], bytes[6], bytes[12], 4))
-                .append(combine(bytes[1], bytes[7], bytes[13], 4))
-                .append(combine(bytes[2], bytes[8], bytes[14], 4))
-                .append(combine(bytes[3], bytes[9], bytes[15], 4))
-                .append(combine(bytes[4], bytes[10], bytes[5], 4))
-                .append(combine((byte) 0, (byte) 0, bytes[11], 2));
+            return new String(salt);
+        }
+    }
+
+    @NoArgsConstructor @ToString
+    private static class MD5Crypt extends NoCrypt {
+        private static final String MAGIC = MD5CryptEngine.MAGIC;
+        private static final int SALT_LENGTH = MD5CryptEngine.SALT_LENGTH;
+
+        public static final MD5Crypt INSTANCE = new MD5Crypt();
+
+        @Override
+        public String encode(CharSequence raw) {
+            return MD5CryptEngine.get().encode(raw, salt(SALT_LENGTH));
+        }
+
+        @Override
+        public boolean matches(CharSequence raw, String encoded) {
+            if (! encoded.startsWith(MAGIC)) {
+                throw new IllegalArgumentException("Invalid format");
+            }
+
+            int start = MAGIC.length();
+            int end = encoded.indexOf('$', start);
+
+            if (end < 0) {
+                end = encoded.length();
+            }
 
-            return result.toString();
+            return MD5CryptEngine.get().matches(raw, encoded, start, end, encoded);
         }
+    }
+
+    @ToString
+    private static class SHACrypt extends NoCrypt {
+        private static final int SALT_LENGTH = SHACryptEngine.SALT_LENGTH;
+
+        private final Supplier<SHACryptEngine> engine;
+        private final int rounds;
 
-        private String combine(byte b0, byte b1, byte b2, int size) {
-            return itoa64(((((long) b0) & 0xff) << 16) | ((((long) b1) & 0xff) << 8) | (((long) b2) & 0xff), size);
+        public SHACrypt(Supplier<SHACryptEngine> engine, int rounds) {
+            this.engine = engine;
+            this.rounds = rounds;
+        }
+
+        @Override
+        public String encode(CharSequence raw) {
+            return engine.get().encode(raw, salt(SALT_LENGTH), rounds);
         }
 
         @Override
         public boolean matches(CharSequence raw, String encoded) {
-            String salt = null;
+            SHACryptEngine engine = this.engine.get();
 
-            if (encoded.startsWith(MAGIC)) {
-                salt = encoded.substring(MAGIC.length()).split("[$]")[0];
-            } else {
+            if (! encoded.startsWith(engine.magic())) {
                 throw new IllegalArgumentException("Invalid format");
             }
 
-            return encoded.equals(encode(raw.toString(), salt));
+            return engine.matches(raw, encoded);
         }
     }
 }
@@ -0,0 +1,151 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Micrometer-instrumented {@link PasswordEncoder} wrapper.  Records
+ * {@value #ENCODE} and {@value #MATCHES} latency histograms tagged with the
+ * encoder {@code id} (the {@code {id}} prefix of the encoded password,
+ * e.g., {@code MD5-CRYPT}, {@code PLAIN}, or an id such as {@code bcrypt}
+ * handled by the
+ * {@link org.springframework.security.crypto.factory.PasswordEncoderFactories#createDelegatingPasswordEncoder()}
+ * fallback) and counts {@value #MALFORMED} encoded passwords (those for
+ * which {@link #matches(CharSequence,String)} throws
+ * {@link IllegalArgumentException}).  Unprefixed crypt(3)-style hashes
+ * are tagged with the recognized scheme and any other encoded passwords
+ * without a prefix are tagged {@value #NONE}.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class MeteredPasswordEncoder implements PasswordEncoder {
+    private static final String PREFIX = "password.encoder.";
+
+    /**
+     * {@link #encode(CharSequence)} {@link Timer} name.
+     */
+    public static final String ENCODE = PREFIX + "encode";
+
+    /**
+     * {@link #matches(CharSequence,String)} {@link Timer} name.
+     */
+    public static final String MATCHES = PREFIX + "matches";
+
+    /**
+     * Malformed encoded password {@link Counter} name.
+     */
+    public static final String MALFORMED = PREFIX + "malformed";
+
+    /**
+     * {@code id} tag value for encoded passwords whose scheme cannot be
+     * determined.
+     */
+    public static final String NONE = "none";
+
+    private static final String ID = "id";
+    private static final String RESULT = "result";
+
+    @ToString.Include
+    private final PasswordEncoder delegate;
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String,Timer> encode = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Timer> matched = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Timer> mismatched = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Counter> malformed = new ConcurrentHashMap<>();
+
+    /**
+     * Sole constructor.
+     *
+     * @param   delegate        The {@link PasswordEncoder} to wrap.
+     * @param   registry        The {@link MeterRegistry}.
+     */
+    public MeteredPasswordEncoder(@NonNull PasswordEncoder delegate, @NonNull MeterRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public String encode(CharSequence raw) {
+        long start = System.nanoTime();
+        String encoded = delegate.encode(raw);
+        long nanos = System.nanoTime() - start;
+
+        encode.computeIfAbsent(id(encoded), k -> timer(ENCODE, k, null))
+            .record(nanos, NANOSECONDS);
+
+        return encoded;
+    }
+
+    @Override
+    public boolean matches(CharSequence raw, String encoded) {
+        String id = id(encoded);
+        long start = System.nanoTime();
+        boolean matches = false;
+
+        try {
+            matches = delegate.matches(raw, encoded);
+        } catch (IllegalArgumentException exception) {
+            malformed.computeIfAbsent(id, k -> Counter.builder(MALFORMED).tag(ID, k).register(registry))
+                .increment();
+            throw exception;
+        }
+
+        long nanos = System.nanoTime() - start;
+        String result = String.valueOf(matches);
+
+        (matches ? matched : mismatched)
+            .computeIfAbsent(id, k -> timer(MATCHES, k, result))
+            .record(nanos, NANOSECONDS);
+
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encoded) {
+        return delegate.upgradeEncoding(encoded);
+    }
+
+    private Timer timer(String name, String id, String result) {
+        Timer.Builder builder = Timer.builder(name).tag(ID, id).publishPercentileHistogram();
+
+        if (result != null) {
+            builder = builder.tag(RESULT, result);
+        }
+
+        return builder.register(registry);
+    }
+
+    private static String id(String encoded) {
+        String id = MD5CryptPasswordEncoder.scheme(encoded);
+
+        return (id != null) ? id : NONE;
+    }
+}
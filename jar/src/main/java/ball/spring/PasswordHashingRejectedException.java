@@ -0,0 +1,43 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link RejectedExecutionException} thrown when
+ * {@link MD5CryptPasswordEncoder} admission control rejects a password
+ * hashing request.
+ *
+ * @see MD5CryptPasswordEncoder#setAdmissionControl(int,int,java.time.Duration)
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class PasswordHashingRejectedException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sole constructor.
+     *
+     * @param   message         The detail message.
+     */
+    public PasswordHashingRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,214 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Rehash-on-login {@link PasswordEncoder} wrapper.  A successful
+ * {@link #matches(CharSequence,String)} against an encoding the delegate
+ * reports as requiring an upgrade (see
+ * {@link MD5CryptPasswordEncoder#setUpgradeLegacyEncodings(boolean)})
+ * schedules re-encoding with the target {@link PasswordEncoder} on a
+ * bounded background executor and hands the (old, new) encodings to a
+ * persistence callback.  The (expensive) target hash is therefore never
+ * computed on the login request thread.  {@link #upgradeEncoding(String)}
+ * always returns {@code false} so callers such as Spring Security's
+ * {@code DaoAuthenticationProvider} do not also re-encode synchronously.
+ * The raw password is held in memory only until its task has run; tasks
+ * that do not fit in the queue are dropped and the password is upgraded on
+ * a later login.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class RehashingPasswordEncoder implements PasswordEncoder, AutoCloseable {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    @ToString.Include
+    private final PasswordEncoder delegate;
+    @ToString.Include
+    private final PasswordEncoder target;
+    private final BiConsumer<String,String> callback;
+    private final ExecutorService executor;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final LongAdder upgraded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Construct an instance that re-encodes with
+     * {@link PasswordEncoderFactories#createDelegatingPasswordEncoder()}
+     * on a single background thread.
+     *
+     * @param   delegate        The {@link PasswordEncoder} that verifies
+     *                          (legacy) encodings.
+     * @param   callback        The persistence callback invoked with the
+     *                          old and new encodings.
+     */
+    public RehashingPasswordEncoder(PasswordEncoder delegate, BiConsumer<String,String> callback) {
+        this(delegate, PasswordEncoderFactories.createDelegatingPasswordEncoder(), callback, 1, QUEUE_CAPACITY);
+    }
+
+    /**
+     * Sole non-default constructor.
+     *
+     * @param   delegate        The {@link PasswordEncoder} that verifies
+     *                          (legacy) encodings.
+     * @param   target          The {@link PasswordEncoder} for new
+     *                          encodings.
+     * @param   callback        The persistence callback invoked with the
+     *                          old and new encodings.
+     * @param   threads         The number of background threads.
+     * @param   capacity        The maximum number of queued upgrades.
+     */
+    public RehashingPasswordEncoder(@NonNull PasswordEncoder delegate, @NonNull PasswordEncoder target,
+                                    @NonNull BiConsumer<String,String> callback,
+                                    int threads, int capacity) {
+        this.delegate = delegate;
+        this.target = target;
+        this.callback = callback;
+
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 60, SECONDS,
+                                   new ArrayBlockingQueue<>(capacity), new DaemonThreadFactory());
+
+        executor.allowCoreThreadTimeOut(true);
+
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * New passwords are encoded with the target {@link PasswordEncoder}.
+     */
+    @Override
+    public String encode(CharSequence raw) {
+        return target.encode(raw);
+    }
+
+    @Override
+    public boolean matches(CharSequence raw, String encoded) {
+        boolean matches = delegate.matches(raw, encoded);
+
+        if (matches && delegate.upgradeEncoding(encoded) && target.upgradeEncoding(encoded)) {
+            schedule(raw.toString(), encoded);
+        }
+
+        return matches;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Upgrades are performed asynchronously by
+     * {@link #matches(CharSequence,String)} so this method always returns
+     * {@code false}.
+     */
+    @Override
+    public boolean upgradeEncoding(String encoded) {
+        return false;
+    }
+
+    private void schedule(String raw, String encoded) {
+        if (pending.add(encoded)) {
+            try {
+                executor.execute(() -> upgrade(raw, encoded));
+            } catch (RejectedExecutionException exception) {
+                pending.remove(encoded);
+                rejected.increment();
+            }
+        }
+    }
+
+    private void upgrade(String raw, String encoded) {
+        try {
+            callback.accept(encoded, target.encode(raw));
+            upgraded.increment();
+        } catch (Exception exception) {
+            failed.increment();
+            log.warn("Could not upgrade password encoding: {}", exception.getMessage());
+        } finally {
+            pending.remove(encoded);
+        }
+    }
+
+    /**
+     * Method to get the number of encodings upgraded.
+     *
+     * @return  The upgrade count.
+     */
+    public long getUpgraded() { return upgraded.sum(); }
+
+    /**
+     * Method to get the number of upgrades dropped because the queue was
+     * full.
+     *
+     * @return  The rejected count.
+     */
+    public long getRejected() { return rejected.sum(); }
+
+    /**
+     * Method to get the number of upgrades that failed in the target
+     * {@link PasswordEncoder} or the callback.
+     *
+     * @return  The failure count.
+     */
+    public long getFailed() { return failed.sum(); }
+
+    /**
+     * Method to stop accepting upgrades.  Queued upgrades are still
+     * performed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @ToString
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, RehashingPasswordEncoder.class.getSimpleName() + "-" + count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
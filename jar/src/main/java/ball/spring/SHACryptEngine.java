@@ -0,0 +1,387 @@
+package ball.spring;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * SHA-256-CRYPT ({@code $5$}) and SHA-512-CRYPT ({@code $6$}) engine.  See
+ * {@link.uri https://www.akkadia.org/drepper/SHA-crypt.txt target=newtab Unix crypt using SHA-256 and SHA-512}.
+ * Like {@link MD5CryptEngine}, each thread reuses a single
+ * {@link MessageDigest} and preallocated buffers.  Instances are not
+ * thread-safe; callers obtain the calling thread's instance with
+ * {@link #sha256()} or {@link #sha512()}.
+ *
+ * @see MD5CryptPasswordEncoder
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+final class SHACryptEngine {
+    static final String SHA256_MAGIC = "$5$";
+    static final String SHA512_MAGIC = "$6$";
+    static final String ROUNDS_PREFIX = "rounds=";
+    static final int SALT_LENGTH = 16;
+    static final int ROUNDS_DEFAULT = 5000;
+    static final int ROUNDS_MIN = 1000;
+    static final int ROUNDS_MAX = 999999999;
+
+    private static final char[] ITOA64 =
+        "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private static final int[] SHA256_ORDER = {
+        0, 10, 20, 21, 1, 11, 12, 22, 2, 3, 13, 23, 24, 4, 14,
+        15, 25, 5, 6, 16, 26, 27, 7, 17, 18, 28, 8, 9, 19, 29
+    };
+    private static final int[] SHA512_ORDER = {
+        0, 21, 42, 22, 43, 1, 44, 2, 23, 3, 24, 45, 25, 46, 4,
+        47, 5, 26, 6, 27, 48, 28, 49, 7, 50, 8, 29, 9, 30, 51,
+        31, 52, 10, 53, 11, 32, 12, 33, 54, 34, 55, 13, 56, 14, 35,
+        15, 36, 57, 37, 58, 16, 59, 17, 38, 18, 39, 60, 40, 61, 19,
+        62, 20, 41
+    };
+
+    private static final ThreadLocal<SHACryptEngine> SHA256 =
+        ThreadLocal.withInitial(() -> new SHACryptEngine("SHA-256", SHA256_MAGIC, SHA256_ORDER));
+    private static final ThreadLocal<SHACryptEngine> SHA512 =
+        ThreadLocal.withInitial(() -> new SHACryptEngine("SHA-512", SHA512_MAGIC, SHA512_ORDER));
+
+    /**
+     * Method to get the calling thread's SHA-256-CRYPT
+     * {@link SHACryptEngine}.
+     *
+     * @return  The {@link SHACryptEngine}.
+     */
+    static SHACryptEngine sha256() { return SHA256.get(); }
+
+    /**
+     * Method to get the calling thread's SHA-512-CRYPT
+     * {@link SHACryptEngine}.
+     *
+     * @return  The {@link SHACryptEngine}.
+     */
+    static SHACryptEngine sha512() { return SHA512.get(); }
+
+    private final MessageDigest md;
+    private final String magic;
+    private final int[] order;
+    private final byte[] a;
+    private final byte[] b;
+    private final byte[] s;
+    private final char[] out;
+    private byte[] p = new byte[64];
+    private byte[] password = new byte[64];
+
+    private SHACryptEngine(String algorithm, String magic, int[] order) {
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+
+        this.magic = magic;
+        this.order = order;
+
+        int length = md.getDigestLength();
+
+        a = new byte[length];
+        b = new byte[length];
+        s = new byte[length];
+        out = new char[magic.length() + ROUNDS_PREFIX.length() + 10 + SALT_LENGTH + 1 + (length * 4 + 2) / 3];
+    }
+
+    /**
+     * Method to get the {@code $n$} magic prefix.
+     *
+     * @return  The magic prefix.
+     */
+    String magic() { return magic; }
+
+    /**
+     * Method to calculate the SHA-CRYPT hash of a password.
+     *
+     * @param   raw             The raw password.
+     * @param   salt            The salt (truncated to
+     *                          {@value #SALT_LENGTH} UTF-8 bytes).
+     * @param   rounds          The number of rounds (clamped to
+     *                          [{@value #ROUNDS_MIN},
+     *                          {@value #ROUNDS_MAX}]).  The
+     *                          {@code rounds=} parameter is omitted from
+     *                          the result if {@value #ROUNDS_DEFAULT}.
+     *
+     * @return  The {@code $n$[rounds=N$]salt$hash} {@link String}.
+     */
+    String encode(CharSequence raw, CharSequence salt, int rounds) {
+        int length = crypt(raw, salt, 0, salt.length(), rounds, rounds != ROUNDS_DEFAULT);
+
+        return new String(out, 0, length);
+    }
+
+    /**
+     * Method to verify a password against a SHA-CRYPT hash.
+     *
+     * @param   raw             The raw password.
+     * @param   encoded         The expected {@code $n$[rounds=N$]salt$hash}
+     *                          (beginning with {@link #magic()}).
+     *
+     * @return  {@code true} if the computed hash equals {@code encoded};
+     *          {@code false} otherwise.
+     *
+     * @throws  IllegalArgumentException
+     *                          If the {@code rounds=} parameter is
+     *                          malformed.
+     */
+    boolean matches(CharSequence raw, String encoded) {
+        int start = magic.length();
+        int rounds = ROUNDS_DEFAULT;
+        boolean custom = encoded.startsWith(ROUNDS_PREFIX, start);
+
+        if (custom) {
+            int end = encoded.indexOf('$', start);
+
+            if (end < 0) {
+                throw new IllegalArgumentException("Invalid format");
+            }
+
+            rounds = parseRounds(encoded, start + ROUNDS_PREFIX.length(), end);
+            start = end + 1;
+        }
+
+        int end = encoded.indexOf('$', start);
+
+        if (end < 0) {
+            end = encoded.length();
+        }
+
+        int length = crypt(raw, encoded, start, end, rounds, custom);
+        int diff = length ^ encoded.length();
+
+        for (int i = 0, n = Math.min(length, encoded.length()); i < n; i += 1) {
+            diff |= out[i] ^ encoded.charAt(i);
+        }
+
+        return diff == 0;
+    }
+
+    private static int parseRounds(CharSequence chars, int start, int end) {
+        if (start >= end || end - start > 10) {
+            throw new IllegalArgumentException("Invalid rounds");
+        }
+
+        long rounds = 0;
+
+        for (int i = start; i < end; i += 1) {
+            int digit = Character.digit(chars.charAt(i), 10);
+
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid rounds");
+            }
+
+            rounds = (10 * rounds) + digit;
+        }
+
+        return (int) Math.min(rounds, Integer.MAX_VALUE);
+    }
+
+    private int crypt(CharSequence raw, CharSequence chars, int start, int end, int rounds, boolean custom) {
+        rounds = Math.max(ROUNDS_MIN, Math.min(rounds, ROUNDS_MAX));
+
+        end = truncate(chars, start, end);
+
+        byte[] salt = chars.subSequence(start, end).toString().getBytes(UTF_8);
+        int length = password(raw);
+        byte[] password = this.password;
+        int size = md.getDigestLength();
+
+        /* B = H(P S P) */
+        md.update(password, 0, length);
+        md.update(salt);
+        md.update(password, 0, length);
+        digest(b);
+
+        /* A = H(P S B... bits-of-length(B|P)) */
+        md.update(password, 0, length);
+        md.update(salt);
+
+        int count = length;
+
+        for (; count > size; count -= size) {
+            md.update(b, 0, size);
+        }
+
+        md.update(b, 0, count);
+
+        for (count = length; count > 0; count >>>= 1) {
+            if ((count & 1) != 0) {
+                md.update(b, 0, size);
+            } else {
+                md.update(password, 0, length);
+            }
+        }
+
+        digest(a);
+
+        /* P sequence */
+        for (int i = 0; i < length; i += 1) {
+            md.update(password, 0, length);
+        }
+
+        digest(b);
+
+        if (p.length < length) {
+            Arrays.fill(p, (byte) 0);
+            p = new byte[Math.max(length, 2 * p.length)];
+        }
+
+        for (int i = 0; i < length; i += size) {
+            System.arraycopy(b, 0, p, i, Math.min(size, length - i));
+        }
+
+        /* S sequence */
+        for (int i = 0, n = 16 + (a[0] & 0xff); i < n; i += 1) {
+            md.update(salt);
+        }
+
+        digest(s);
+
+        for (int i = 0; i < rounds; i += 1) {
+            if ((i & 1) != 0) {
+                md.update(p, 0, length);
+            } else {
+                md.update(a, 0, size);
+            }
+
+            if ((i % 3) != 0) {
+                md.update(s, 0, salt.length);
+            }
+
+            if ((i % 7) != 0) {
+                md.update(p, 0, length);
+            }
+
+            if ((i & 1) != 0) {
+                md.update(a, 0, size);
+            } else {
+                md.update(p, 0, length);
+            }
+
+            digest(a);
+        }
+
+        Arrays.fill(password, 0, length, (byte) 0);
+        Arrays.fill(p, 0, length, (byte) 0);
+
+        int offset = 0;
+
+        offset = append(offset, magic);
+
+        if (custom) {
+            offset = append(offset, ROUNDS_PREFIX);
+            offset = append(offset, Integer.toString(rounds));
+            out[offset++] = '$';
+        }
+
+        for (int i = start; i < end; i += 1) {
+            out[offset++] = chars.charAt(i);
+        }
+
+        out[offset++] = '$';
+
+        for (int i = 0; i < order.length; i += 3) {
+            offset = itoa64(offset, a[order[i]], a[order[i + 1]], a[order[i + 2]], 4);
+        }
+
+        if (size == 32) {
+            offset = itoa64(offset, (byte) 0, a[31], a[30], 3);
+        } else {
+            offset = itoa64(offset, (byte) 0, (byte) 0, a[63], 2);
+        }
+
+        return offset;
+    }
+
+    /*
+     * The salt is limited to SALT_LENGTH UTF-8 bytes (not characters);
+     * truncation is at a code point boundary so the salt written to the
+     * result re-parses to the same bytes.  (The salt bytes therefore
+     * never exceed the digest-sized s buffer.)
+     */
+    private static int truncate(CharSequence chars, int start, int end) {
+        int bytes = 0;
+        int index = start;
+
+        while (index < end) {
+            int codePoint = Character.codePointAt(chars, index);
+            int count = Math.min(Character.charCount(codePoint), end - index);
+            int length = chars.subSequence(index, index + count).toString().getBytes(UTF_8).length;
+
+            if (bytes + length > SALT_LENGTH) {
+                break;
+            }
+
+            bytes += length;
+            index += count;
+        }
+
+        return index;
+    }
+
+    private int append(int offset, String string) {
+        string.getChars(0, string.length(), out, offset);
+
+        return offset + string.length();
+    }
+
+    private int itoa64(int offset, byte b0, byte b1, byte b2, int size) {
+        int value = ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+
+        while (--size >= 0) {
+            out[offset++] = ITOA64[value & 0x3f];
+            value >>>= 6;
+        }
+
+        return offset;
+    }
+
+    private int password(CharSequence raw) {
+        byte[] bytes = raw.toString().getBytes(UTF_8);
+
+        if (password.length < bytes.length) {
+            Arrays.fill(password, (byte) 0);
+            password = new byte[Math.max(bytes.length, 2 * password.length)];
+        }
+
+        System.arraycopy(bytes, 0, password, 0, bytes.length);
+        Arrays.fill(bytes, (byte) 0);
+
+        return bytes.length;
+    }
+
+    private void digest(byte[] bytes) {
+        try {
+            md.digest(bytes, 0, bytes.length);
+        } catch (DigestException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package ball.spring.dialect;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.thymeleaf.IEngineConfiguration;
+import org.thymeleaf.context.ITemplateContext;
+import org.thymeleaf.dialect.AbstractDialect;
+import org.thymeleaf.dialect.IDialect;
+import org.thymeleaf.dialect.IPostProcessorDialect;
+import org.thymeleaf.engine.AbstractTemplateHandler;
+import org.thymeleaf.model.ICDATASection;
+import org.thymeleaf.model.ICloseElementTag;
+import org.thymeleaf.model.IComment;
+import org.thymeleaf.model.IDocType;
+import org.thymeleaf.model.IOpenElementTag;
+import org.thymeleaf.model.IProcessingInstruction;
+import org.thymeleaf.model.IStandaloneElementTag;
+import org.thymeleaf.model.ITemplateEnd;
+import org.thymeleaf.model.ITemplateEvent;
+import org.thymeleaf.model.ITemplateStart;
+import org.thymeleaf.model.IText;
+import org.thymeleaf.model.IXMLDeclaration;
+import org.thymeleaf.postprocessor.IPostProcessor;
+import org.thymeleaf.postprocessor.PostProcessor;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.thymeleaf.templatemode.TemplateMode.HTML;
+
+/**
+ * Micrometer template render instrumentation dialect.  Records, tagged
+ * with the (outermost) template {@code view} name, {@value #RENDER}
+ * latency histograms, {@value #OUTPUT} (characters written), and (where
+ * the JVM supports thread allocation accounting) {@value #ALLOCATION}
+ * (bytes allocated by the rendering thread).  {@value #MODEL} records
+ * model population time reported with {@link #recordModel(String,long)}
+ * and {@value #PROCESSOR} the processor time of instrumented dialects
+ * (see {@link #instrument(WebJarsDialect)}) tagged with the
+ * {@code dialect} name.  Nothing is recorded unless the dialect is
+ * registered with the template engine.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class MetricsDialect extends AbstractDialect implements IPostProcessorDialect {
+    private static final String NAME = "Metrics Dialect";
+    private static final String PREFIX = "thymeleaf.";
+    private static final int PRECEDENCE = Integer.MAX_VALUE;
+
+    /**
+     * Render latency {@link Timer} name.
+     */
+    public static final String RENDER = PREFIX + "render";
+
+    /**
+     * Rendered output size {@link DistributionSummary} name.
+     */
+    public static final String OUTPUT = RENDER + ".output";
+
+    /**
+     * Render thread allocation {@link DistributionSummary} name.
+     */
+    public static final String ALLOCATION = RENDER + ".allocation";
+
+    /**
+     * Model population {@link Timer} name.
+     */
+    public static final String MODEL = PREFIX + "model";
+
+    /**
+     * Dialect processor {@link Timer} name.
+     */
+    public static final String PROCESSOR = PREFIX + "dialect.processor";
+
+    private static final String VIEW = "view";
+    private static final String DIALECT = "dialect";
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private static com.sun.management.ThreadMXBean threads() {
+        com.sun.management.ThreadMXBean threads = null;
+
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                threads = (com.sun.management.ThreadMXBean) bean;
+
+                if (! (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())) {
+                    threads = null;
+                }
+            }
+        } catch (Throwable throwable) {
+            threads = null;
+        }
+
+        return threads;
+    }
+
+    private final MeterRegistry registry;
+    private final Set<IPostProcessor> postProcessors =
+        Collections.singleton(new PostProcessor(HTML, Handler.class, PRECEDENCE));
+    private final ConcurrentHashMap<String,Meters> meters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Timer> model = new ConcurrentHashMap<>();
+
+    /**
+     * Sole constructor.
+     *
+     * @param   registry        The {@link MeterRegistry}.
+     */
+    public MetricsDialect(@NonNull MeterRegistry registry) {
+        super(NAME);
+
+        this.registry = registry;
+    }
+
+    @Override
+    public int getDialectPostProcessorPrecedence() { return PRECEDENCE; }
+
+    @Override
+    public Set<IPostProcessor> getPostProcessors() { return postProcessors; }
+
+    /**
+     * Method to record the time spent populating the model of a view.
+     *
+     * @param   view            The view name.
+     * @param   nanos           The elapsed time (nanoseconds).
+     */
+    public void recordModel(String view, long nanos) {
+        model.computeIfAbsent(view,
+                              k -> Timer.builder(MODEL).tag(VIEW, k)
+                                   .publishPercentileHistogram().register(registry))
+            .record(nanos, NANOSECONDS);
+    }
+
+    /**
+     * Method to record the processor time of a {@link WebJarsDialect}
+     * (see {@link WebJarsDialect#setProcessorTimer(LongConsumer)}).
+     *
+     * @param   dialect         The {@link WebJarsDialect}.
+     */
+    public void instrument(WebJarsDialect dialect) {
+        Timer timer = Timer.builder(PROCESSOR).tag(DIALECT, dialect.getName()).register(registry);
+
+        dialect.setProcessorTimer(t -> timer.record(t, NANOSECONDS));
+    }
+
+    private void record(String view, long nanos, long characters, long bytes) {
+        Meters meters = this.meters.computeIfAbsent(view, Meters::new);
+
+        meters.render.record(nanos, NANOSECONDS);
+        meters.output.record(characters);
+
+        if (bytes >= 0) {
+            meters.allocation.record(bytes);
+        }
+    }
+
+    private class Meters {
+        private final Timer render;
+        private final DistributionSummary output;
+        private final DistributionSummary allocation;
+
+        public Meters(String view) {
+            render = Timer.builder(RENDER).tag(VIEW, view).publishPercentileHistogram().register(registry);
+            output = DistributionSummary.builder(OUTPUT).tag(VIEW, view).baseUnit("characters").register(registry);
+            allocation = DistributionSummary.builder(ALLOCATION).tag(VIEW, view).baseUnit("bytes").register(registry);
+        }
+    }
+
+    /**
+     * Post-processor {@link org.thymeleaf.engine.ITemplateHandler}
+     * (instantiated by the engine for each template processed).  Counts
+     * the characters of every output event and records the totals at
+     * template end.
+     */
+    @NoArgsConstructor @ToString
+    public static class Handler extends AbstractTemplateHandler {
+        private MetricsDialect dialect = null;
+        private String view = null;
+        private long start = 0;
+        private long allocated = -1;
+        @ToString.Exclude
+        private final CountingWriter writer = new CountingWriter();
+
+        @Override
+        public void setContext(ITemplateContext context) {
+            super.setContext(context);
+
+            dialect = find(context.getConfiguration());
+            view = context.getTemplateData().getTemplate();
+        }
+
+        private static MetricsDialect find(IEngineConfiguration configuration) {
+            MetricsDialect dialect = null;
+
+            for (IDialect candidate : configuration.getDialects()) {
+                if (candidate instanceof MetricsDialect) {
+                    dialect = (MetricsDialect) candidate;
+                    break;
+                }
+            }
+
+            return dialect;
+        }
+
+        @Override
+        public void handleTemplateStart(ITemplateStart event) {
+            start = System.nanoTime();
+            allocated = (THREADS != null) ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+
+            super.handleTemplateStart(event);
+        }
+
+        @Override
+        public void handleTemplateEnd(ITemplateEnd event) {
+            super.handleTemplateEnd(event);
+
+            if (dialect != null) {
+                long nanos = System.nanoTime() - start;
+                long bytes = -1;
+
+                if (allocated >= 0) {
+                    bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+                }
+
+                dialect.record(view, nanos, writer.count, bytes);
+            }
+        }
+
+        @Override
+        public void handleText(IText event) {
+            writer.count += event.length();
+
+            super.handleText(event);
+        }
+
+        @Override
+        public void handleComment(IComment event) {
+            count(event);
+            super.handleComment(event);
+        }
+
+        @Override
+        public void handleCDATASection(ICDATASection event) {
+            count(event);
+            super.handleCDATASection(event);
+        }
+
+        @Override
+        public void handleStandaloneElement(IStandaloneElementTag event) {
+            count(event);
+            super.handleStandaloneElement(event);
+        }
+
+        @Override
+        public void handleOpenElement(IOpenElementTag event) {
+            count(event);
+            super.handleOpenElement(event);
+        }
+
+        @Override
+        public void handleCloseElement(ICloseElementTag event) {
+            count(event);
+            super.handleCloseElement(event);
+        }
+
+        @Override
+        public void handleDocType(IDocType event) {
+            count(event);
+            super.handleDocType(event);
+        }
+
+        @Override
+        public void handleXMLDeclaration(IXMLDeclaration event) {
+            count(event);
+            super.handleXMLDeclaration(event);
+        }
+
+        @Override
+        public void handleProcessingInstruction(IProcessingInstruction event) {
+            count(event);
+            super.handleProcessingInstruction(event);
+        }
+
+        private void count(ITemplateEvent event) {
+            try {
+                event.write(writer);
+            } catch (Exception exception) {
+            }
+        }
+    }
+
+    /*
+     * Counts (and discards) the characters written.
+     */
+    @NoArgsConstructor
+    private static class CountingWriter extends Writer {
+        private long count = 0;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) { count += length; }
+
+        @Override
+        public void write(String string, int offset, int length) { count += length; }
+
+        @Override
+        public void write(int character) { count += 1; }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,380 @@
+package ball.spring.dialect;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.annotation.CompileTimeCheck;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.webjars.WebJarAssetLocator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Concatenated WebJar asset bundle (see
+ * {@link WebJarsDialect.WebJars#bundle(String...)}).  A bundle is built
+ * once from an ordered list of (at most {@value #MAX_ASSETS}, distinct)
+ * JavaScript or CSS assets totalling at most {@value #MAX_BYTES} bytes and
+ * is named by the MD5 digest of its content.  Its {@link #getPath()}
+ * ({@value #PATH}{@code hash/spec.ext}) also encodes the asset list so
+ * any server instance can rebuild a bundle it has not built yet (see
+ * {@link #get(String,String)}).  A client-supplied list is only rebuilt
+ * if every asset is in the {@link WebJarsIndex} and the list is within
+ * the above limits.  Source map references are removed and
+ * relative CSS {@code url(...)} references are rewritten to absolute
+ * {@code /webjars/} paths.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class WebJarsBundle {
+    /**
+     * Bundle request path prefix.
+     */
+    public static final String PATH = "/webjars-bundle/";
+
+    private static final String ROOT = WebJarAssetLocator.WEBJARS_PATH_PREFIX + "/";
+    private static final String LOCAL = "/webjars/";
+    private static final String JS = "js";
+    private static final String CSS = "css";
+    @CompileTimeCheck
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{32}");
+    private static final int MAX_SPEC = 64 * 1024;
+    private static final int MAX_REBUILT = 1024;
+
+    /**
+     * Maximum number of assets in a bundle.
+     */
+    public static final int MAX_ASSETS = 64;
+
+    /**
+     * Maximum bundle content size.
+     */
+    public static final int MAX_BYTES = 8 * 1024 * 1024;
+
+    @CompileTimeCheck
+    private static final Pattern SOURCE_MAP =
+        Pattern.compile("(?m)^[\\p{Space}]*(//|/\\*)[#@][\\p{Space}]*sourceMappingURL=.*$");
+    @CompileTimeCheck
+    private static final Pattern URL =
+        Pattern.compile("(?i)url\\([\\p{Space}]*(?<quote>['\"]?)(?<url>[^'\")]+)\\k<quote>[\\p{Space}]*\\)");
+    @CompileTimeCheck
+    private static final Pattern ABSOLUTE = Pattern.compile("(?i)([a-z][a-z0-9+.-]*:|/|#).*");
+
+    private static final ConcurrentHashMap<List<String>,WebJarsBundle> BY_RESOURCES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,WebJarsBundle> BY_HASH = new ConcurrentHashMap<>();
+    private static final Set<String> REJECTED = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Method to get (building if necessary) the bundle of an ordered
+     * list of WebJar assets.
+     *
+     * @param   resources       The full paths of the assets (all
+     *                          {@code .js} or all {@code .css}).
+     *
+     * @return  The {@link WebJarsBundle}.
+     *
+     * @throws  IllegalArgumentException
+     *                          If the list is empty, the assets are not
+     *                          all of the same type, or an asset cannot
+     *                          be read.
+     */
+    public static WebJarsBundle of(List<String> resources) {
+        List<String> key = Collections.unmodifiableList(new ArrayList<>(resources));
+
+        return BY_RESOURCES.computeIfAbsent(key, k -> register(new WebJarsBundle(k)));
+    }
+
+    /**
+     * Method to get a bundle by {@link #getHash() hash}, rebuilding it
+     * from the encoded asset list of its {@link #getPath()} if necessary.
+     * Nothing is read unless every asset of the list is a distinct
+     * {@link WebJarsIndex} entry.  (At most {@value #MAX_REBUILT} rebuilt
+     * bundles are retained and (hash, list) pairs that do not rebuild to
+     * {@code hash} are remembered and not rebuilt again.)
+     *
+     * @param   hash            The bundle hash.
+     * @param   spec            The encoded asset list.
+     *
+     * @return  The {@link WebJarsBundle} or {@code null} if it cannot be
+     *          built or the rebuilt content does not match {@code hash}.
+     */
+    public static WebJarsBundle get(String hash, String spec) {
+        WebJarsBundle bundle = BY_HASH.get(hash);
+
+        if (bundle == null && HASH.matcher(hash).matches()) {
+            String rejected = DigestUtils.md5DigestAsHex((hash + "/" + spec).getBytes(UTF_8));
+
+            if (! REJECTED.contains(rejected)) {
+                try {
+                    List<String> resources = decode(spec);
+                    WebJarsIndex index = WebJarsIndex.get();
+
+                    if (resources.stream().allMatch(index::contains)) {
+                        bundle = new WebJarsBundle(resources);
+                    }
+                } catch (IllegalArgumentException exception) {
+                    log.debug("Cannot rebuild bundle {}: {}", hash, exception.getMessage());
+                }
+
+                if (bundle != null && bundle.getHash().equals(hash)) {
+                    if (BY_HASH.size() < MAX_REBUILT) {
+                        bundle = register(bundle);
+                    }
+                } else {
+                    bundle = null;
+
+                    if (REJECTED.size() < MAX_REBUILT) {
+                        REJECTED.add(rejected);
+                    }
+                }
+            }
+        }
+
+        return bundle;
+    }
+
+    private static WebJarsBundle register(WebJarsBundle bundle) {
+        WebJarsBundle registered = BY_HASH.putIfAbsent(bundle.getHash(), bundle);
+
+        return (registered != null) ? registered : bundle;
+    }
+
+    @ToString.Include
+    private final List<String> resources;
+    @Getter
+    private final String extension;
+    @Getter
+    private final String hash;
+    @Getter @ToString.Include
+    private final String path;
+    private final byte[] content;
+
+    private WebJarsBundle(List<String> resources) {
+        if (resources.isEmpty()) {
+            throw new IllegalArgumentException("No assets to bundle");
+        }
+
+        if (resources.size() > MAX_ASSETS) {
+            throw new IllegalArgumentException("Cannot bundle more than " + MAX_ASSETS + " assets");
+        }
+
+        if (new HashSet<>(resources).size() != resources.size()) {
+            throw new IllegalArgumentException("Duplicate assets: " + resources);
+        }
+
+        this.resources = resources;
+        this.extension = extension(resources.get(0));
+
+        if (! (JS.equals(extension) || CSS.equals(extension))) {
+            throw new IllegalArgumentException("Cannot bundle " + resources.get(0));
+        }
+
+        for (String resource : resources) {
+            if (! resource.startsWith(ROOT)) {
+                throw new IllegalArgumentException(resource + " is not a WebJar asset");
+            }
+
+            if (! extension.equals(extension(resource))) {
+                throw new IllegalArgumentException("Cannot bundle " + resource + " with " + resources.get(0));
+            }
+        }
+
+        StringBuilder buffer = new StringBuilder();
+
+        for (String resource : resources) {
+            String text = SOURCE_MAP.matcher(read(resource)).replaceAll("");
+
+            if (CSS.equals(extension)) {
+                text = rewrite(resource, text);
+            }
+
+            buffer.append("/* ").append(LOCAL).append(resource.substring(ROOT.length())).append(" */\n")
+                .append(text);
+            /*
+             * Guard against assets without a trailing newline or (for
+             * JavaScript) a terminating semicolon.
+             */
+            buffer.append(JS.equals(extension) ? "\n;\n" : "\n");
+
+            if (buffer.length() > MAX_BYTES) {
+                throw new IllegalArgumentException("Bundle exceeds " + MAX_BYTES + " bytes");
+            }
+        }
+
+        this.content = buffer.toString().getBytes(UTF_8);
+        this.hash = DigestUtils.md5DigestAsHex(content);
+
+        if (content.length > MAX_BYTES) {
+            throw new IllegalArgumentException("Bundle exceeds " + MAX_BYTES + " bytes");
+        }
+
+        this.path = PATH + hash + "/" + encode(resources) + "." + extension;
+    }
+
+    /**
+     * Method to get the bundled assets.
+     *
+     * @return  The full paths of the bundled assets.
+     */
+    public List<String> getResources() { return resources; }
+
+    /**
+     * Method to get the bundle content.
+     *
+     * @return  The (UTF-8) content.
+     */
+    public byte[] getContent() { return content.clone(); }
+
+    private static String extension(String resource) {
+        return resource.substring(resource.lastIndexOf('.') + 1).toLowerCase();
+    }
+
+    private static String read(String resource) {
+        ClassLoader loader = WebJarsBundle.class.getClassLoader();
+
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException(resource + " not found");
+            }
+
+            return StreamUtils.copyToString(in, UTF_8);
+        } catch (IOException exception) {
+            throw new IllegalArgumentException(resource, exception);
+        }
+    }
+
+    /*
+     * Relative url(...) references are resolved against the asset's
+     * /webjars/ path since the bundle is served from another path.
+     */
+    private static String rewrite(String resource, String text) {
+        URI base = URI.create(LOCAL + resource.substring(ROOT.length()));
+        Matcher matcher = URL.matcher(text);
+        StringBuffer buffer = new StringBuffer();
+
+        while (matcher.find()) {
+            String url = matcher.group("url").trim();
+            String replacement = matcher.group();
+
+            if (! ABSOLUTE.matcher(url).matches()) {
+                try {
+                    replacement = "url(\"" + base.resolve(url) + "\")";
+                } catch (IllegalArgumentException exception) {
+                }
+            }
+
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+        }
+
+        matcher.appendTail(buffer);
+
+        return buffer.toString();
+    }
+
+    private static String encode(List<String> resources) {
+        StringBuilder spec = new StringBuilder();
+
+        for (String resource : resources) {
+            if (spec.length() > 0) {
+                spec.append('\n');
+            }
+
+            spec.append(resource.substring(ROOT.length()));
+        }
+
+        byte[] bytes = spec.toString().getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            while (! deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    private static List<String> decode(String spec) {
+        byte[] bytes = Base64.getUrlDecoder().decode(spec);
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+
+        try {
+            inflater.setInput(bytes);
+
+            while (! inflater.finished()) {
+                int count = inflater.inflate(buffer);
+
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                out.write(buffer, 0, count);
+
+                if (out.size() > MAX_SPEC) {
+                    throw new IllegalArgumentException("Bundle specification too large");
+                }
+            }
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException(exception);
+        } finally {
+            inflater.end();
+        }
+
+        List<String> resources = new ArrayList<>();
+
+        for (String resource : Arrays.asList(new String(out.toByteArray(), UTF_8).split("\n"))) {
+            resources.add(ROOT + resource);
+
+            if (resources.size() > MAX_ASSETS) {
+                throw new IllegalArgumentException("Cannot bundle more than " + MAX_ASSETS + " assets");
+            }
+        }
+
+        return resources;
+    }
+}
@@ -19,22 +19,35 @@ package ball.spring.dialect;
  * ##########################################################################
  */
 import ball.annotation.CompileTimeCheck;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.PropertyResolver;
 import org.springframework.util.AntPathMatcher;
-import org.thymeleaf.IEngineConfiguration;
 import org.thymeleaf.context.IExpressionContext;
 import org.thymeleaf.context.ITemplateContext;
+import org.thymeleaf.context.IWebContext;
 import org.thymeleaf.dialect.AbstractProcessorDialect;
 import org.thymeleaf.dialect.IExpressionObjectDialect;
 import org.thymeleaf.engine.AttributeName;
@@ -49,11 +62,17 @@ import org.thymeleaf.standard.expression.StandardExpressions;
 import org.webjars.WebJarAssetLocator;
 
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
+import static lombok.AccessLevel.PRIVATE;
 import static org.thymeleaf.templatemode.TemplateMode.HTML;
 
 /**
- * {@link WebJarAssetLocator} Thymeleaf dialect.
+ * {@link WebJarAssetLocator} Thymeleaf dialect.  All instances share a
+ * single, lazily loaded {@link WebJarsIndex} (built from the build-time
+ * index if present or by scanning the class path otherwise).  Only one
+ * instance should be registered with a template engine; see
+ * {@code ball-spring-webjars-starter}.
  *
  * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
  */
@@ -70,16 +89,327 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
                         + "(?<path>/.*)");
 
     private static final String LOCAL_FORMAT = "/webjars%s";
-    private static final String CDN_FORMAT = "%s://cdn.jsdelivr.net/webjars/%s%s";
+    private static final String SCHEME_VAR = "{scheme}";
+    private static final String GROUP_ID_VAR = "{groupId}";
+    private static final String PATH_VAR = "{path}";
+    private static final String DEFAULT_SCHEME = "https";
+    private static final AntPathMatcher MATCHER = new AntPathMatcher();
+
+    /**
+     * Default {@link #setCacheSize(int)}.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /**
+     * Default {@link #setCdnUrl(String)} (jsDelivr).
+     */
+    public static final String DEFAULT_CDN_URL = SCHEME_VAR + "://cdn.jsdelivr.net/webjars/" + GROUP_ID_VAR + PATH_VAR;
+
+    /**
+     * Request attribute ({@link Set} of {@code Link} header values) of the
+     * preload links already added to the response.
+     */
+    public static final String PRELOADED = WebJarsDialect.class.getName() + ".PRELOADED";
+
+    /**
+     * Maximum number of {@link #getPreloadLinks(String,String)} per template.
+     */
+    public static final int MAX_PRELOADS = 16;
+
+    private static final String LINK = "Link";
+    private static final String PRELOAD_FORMAT = "<%s>; rel=preload; as=%s";
 
     @Getter(lazy = true)
     private final IExpressionObjectFactory expressionObjectFactory = new ExpressionObjectFactory();
 
+    @ToString.Exclude
+    private final ConcurrentHashMap<Key,String> cache = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    private final ConcurrentHashMap<Key,Collection<String>> assets = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    private final ConcurrentHashMap<Key,String> bundles = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    private final ConcurrentHashMap<Key,Set<String>> preloads = new ConcurrentHashMap<>();
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+    private volatile boolean useCdn = false;
+    private volatile String cdnUrl = DEFAULT_CDN_URL;
+    private volatile String[] cdnExcludes = new String[] { };
+    private volatile boolean preload = false;
+    @ToString.Exclude
+    private volatile LongConsumer processorTimer = null;
+    @ToString.Exclude
+    private volatile UnaryOperator<String> fingerprinter = null;
+
     /**
      * Sole constructor.
      */
     public WebJarsDialect() { super(NAME, PREFIX, PRECEDENCE); }
 
+    /**
+     * Method to create a {@link WebJarsDialect} configured from
+     * (environment) properties:
+     *
+     * <table>
+     *   <tr><th>Property</th><th>Default</th><th>Description</th></tr>
+     *   <tr>
+     *     <td>{@code spring.thymeleaf.cache}</td><td>{@code true}</td>
+     *     <td>{@link #setCacheSize(int) setCacheSize(0)} if {@code false}</td>
+     *   </tr>
+     *   <tr>
+     *     <td>{@code webjars.cdn.enabled}</td><td>{@code false}</td>
+     *     <td>See {@link #setUseCdn(boolean)}</td>
+     *   </tr>
+     *   <tr>
+     *     <td>{@code webjars.cdn.url}</td><td>{@value #DEFAULT_CDN_URL}</td>
+     *     <td>See {@link #setCdnUrl(String)}</td>
+     *   </tr>
+     *   <tr>
+     *     <td>{@code webjars.cdn.excludes}</td><td>None</td>
+     *     <td>See {@link #setCdnExcludes(String...)}</td>
+     *   </tr>
+     *   <tr>
+     *     <td>{@code webjars.preload.enabled}</td><td>{@code false}</td>
+     *     <td>See {@link #setPreload(boolean)}</td>
+     *   </tr>
+     * </table>
+     *
+     * @param   properties      The {@link PropertyResolver} (e.g., the
+     *                          {@link org.springframework.core.env.Environment}).
+     *
+     * @return  The configured {@link WebJarsDialect}.
+     */
+    public static WebJarsDialect of(PropertyResolver properties) {
+        WebJarsDialect dialect = new WebJarsDialect();
+
+        if (! properties.getProperty("spring.thymeleaf.cache", Boolean.class, true)) {
+            dialect.setCacheSize(0);
+        }
+
+        dialect.setUseCdn(properties.getProperty("webjars.cdn.enabled", Boolean.class, false));
+
+        String cdnUrl = properties.getProperty("webjars.cdn.url");
+
+        if (cdnUrl != null && (! cdnUrl.isEmpty())) {
+            dialect.setCdnUrl(cdnUrl);
+        }
+
+        dialect.setCdnExcludes(properties.getProperty("webjars.cdn.excludes", String[].class));
+        dialect.setPreload(properties.getProperty("webjars.preload.enabled", Boolean.class, false));
+
+        return dialect;
+    }
+
+    /**
+     * Method to set the maximum number of resolved paths (and
+     * {@link WebJars#assets(boolean,String,String...)} and
+     * {@link WebJars#bundle(boolean,String...)} results) to cache.
+     * Path resolution searches the full WebJar asset set so the results
+     * are cached by default; specify {@code 0} to disable the cache (e.g.,
+     * during development).
+     *
+     * @param   cacheSize       The maximum number of cached paths.
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative");
+        }
+
+        this.cacheSize = cacheSize;
+
+        cache.clear();
+        assets.clear();
+        bundles.clear();
+        preloads.clear();
+    }
+
+    /**
+     * Method to get the maximum number of resolved paths to cache.
+     *
+     * @return  The maximum number of cached paths.
+     *
+     * @see #setCacheSize(int)
+     */
+    public int getCacheSize() { return cacheSize; }
+
+    /**
+     * Method to set the host-wide default CDN mode.  If {@code true},
+     * {@code webjars:href} and {@code webjars:src} attributes and
+     * {@link WebJars#assets(String...)} resolve WebJar assets to CDN
+     * {@code URI}s (see {@link #setCdnUrl(String)}) instead of local
+     * {@code /webjars/} paths.  The local path is used instead only for
+     * assets whose {@code groupId} cannot be determined or which match a
+     * {@link #setCdnExcludes(String...)} pattern; the choice is made when
+     * the path is resolved and there is no runtime fallback if the CDN
+     * does not serve an asset.
+     *
+     * @param   useCdn          {@code true} to offload to the CDN;
+     *                          {@code false} otherwise.
+     */
+    public void setUseCdn(boolean useCdn) {
+        this.useCdn = useCdn;
+
+        cache.clear();
+        assets.clear();
+        preloads.clear();
+    }
+
+    /**
+     * Method to get the host-wide default CDN mode.
+     *
+     * @return  {@code true} if assets are offloaded to the CDN;
+     *          {@code false} otherwise.
+     *
+     * @see #setUseCdn(boolean)
+     */
+    public boolean isUseCdn() { return useCdn; }
+
+    /**
+     * Method to set the CDN {@code URI} template.  {@code {scheme}} is
+     * replaced with the request scheme ({@code https} if unknown),
+     * {@code {groupId}} with the WebJar {@code groupId}, and
+     * {@code {path}} with the asset path
+     * ({@code /artifactId/version/...}).  The default is
+     * {@value #DEFAULT_CDN_URL}.
+     *
+     * @param   cdnUrl          The CDN {@code URI} template.
+     */
+    public void setCdnUrl(String cdnUrl) {
+        if (cdnUrl == null || (! cdnUrl.contains(PATH_VAR))) {
+            throw new IllegalArgumentException("cdnUrl must contain " + PATH_VAR);
+        }
+
+        this.cdnUrl = cdnUrl;
+
+        cache.clear();
+        assets.clear();
+        preloads.clear();
+    }
+
+    /**
+     * Method to get the CDN {@code URI} template.
+     *
+     * @return  The CDN {@code URI} template.
+     *
+     * @see #setCdnUrl(String)
+     */
+    public String getCdnUrl() { return cdnUrl; }
+
+    /**
+     * Method to set the {@link AntPathMatcher} patterns of local
+     * {@code /webjars/} paths that are never offloaded to the CDN (e.g.,
+     * {@code /webjars/font-awesome/**}).
+     *
+     * @param   patterns        The {@link AntPathMatcher} patterns.
+     */
+    public void setCdnExcludes(String... patterns) {
+        this.cdnExcludes = (patterns != null) ? patterns.clone() : new String[] { };
+
+        cache.clear();
+        assets.clear();
+        preloads.clear();
+    }
+
+    /**
+     * Method to get the {@link AntPathMatcher} patterns of local
+     * {@code /webjars/} paths that are never offloaded to the CDN.
+     *
+     * @return  The {@link AntPathMatcher} patterns.
+     *
+     * @see #setCdnExcludes(String...)
+     */
+    public String[] getCdnExcludes() { return cdnExcludes.clone(); }
+
+    /**
+     * Method to set the function that maps a local (non-WebJar) static
+     * resource path (e.g., {@code /css/site.css}) to its content-hash
+     * fingerprinted path (e.g.,
+     * {@code /css/site-e36d2e05253c6c7085a91522ce43a0b4.css}) for
+     * {@code webjars:href} and {@code webjars:src} attributes.  Typically
+     * {@link org.springframework.web.servlet.resource.ResourceUrlProvider#getForLookupPath(String)}
+     * with a content
+     * {@link org.springframework.web.servlet.resource.VersionResourceResolver}
+     * (see {@code ball-spring-webjars-starter}).  Results are cached with
+     * the resolved paths so each hash is computed once.  The function may
+     * return {@code null} if the path is not a static resource.
+     *
+     * @param   fingerprinter   The fingerprint function ({@code null} to
+     *                          disable).
+     */
+    public void setFingerprinter(UnaryOperator<String> fingerprinter) {
+        this.fingerprinter = fingerprinter;
+
+        cache.clear();
+        preloads.clear();
+    }
+
+    /**
+     * Method to set preload mode.  If {@code true}, the paths resolved for
+     * {@code <script webjars:src="...">} and
+     * {@code <link rel="stylesheet" webjars:href="...">} are added to the
+     * response as {@code Link: <path>; rel=preload; as=script|style}
+     * headers (while the response has not been committed) and are
+     * recorded per template (see {@link #getPreloadLinks(String,String)}) so
+     * they may be sent before subsequent renders of the same template.
+     *
+     * @param   preload         {@code true} to collect preload links;
+     *                          {@code false} otherwise.
+     */
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+
+        preloads.clear();
+    }
+
+    /**
+     * Method to get preload mode.
+     *
+     * @return  {@code true} if preload links are collected;
+     *          {@code false} otherwise.
+     *
+     * @see #setPreload(boolean)
+     */
+    public boolean isPreload() { return preload; }
+
+    /**
+     * Method to get the preload {@code Link} header values recorded for
+     * a template (in document order, at most {@value #MAX_PRELOADS}).
+     * Paths resolved with the CDN are recorded for the scheme of the
+     * rendering request.
+     *
+     * @param   template        The template name.
+     * @param   scheme          The request scheme.
+     *
+     * @return  The {@code Link} header values (empty if the template has
+     *          not been rendered).
+     *
+     * @see #setPreload(boolean)
+     */
+    public List<String> getPreloadLinks(String template, String scheme) {
+        boolean useCdn = isUseCdn();
+        Set<String> set = preloads.get(new Key(template, useCdn, useCdn ? scheme : null));
+        List<String> list = Collections.emptyList();
+
+        if (set != null) {
+            synchronized (set) {
+                list = Collections.unmodifiableList(new ArrayList<>(set));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Method to set the consumer of {@code webjars:href} and
+     * {@code webjars:src} processor elapsed times (see
+     * {@link MetricsDialect#instrument(WebJarsDialect)}).
+     *
+     * @param   processorTimer  The consumer of elapsed nanoseconds
+     *                          ({@code null} to disable).
+     */
+    public void setProcessorTimer(LongConsumer processorTimer) {
+        this.processorTimer = processorTimer;
+    }
+
     @Override
     public Set<IProcessor> getProcessors(String prefix) {
         Set<IProcessor> set =
@@ -90,30 +420,125 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
         return set;
     }
 
-    private static String path(WebJarAssetLocator locator,
-                               boolean useCdn, String scheme, String path) {
-        String resource = locator.getFullPath(path);
+    /*
+     * Resolves path to a local or CDN path; path is returned unchanged if
+     * it is not a (unique) WebJar asset.  Results are memoized by (path,
+     * useCdn, scheme).
+     */
+    private String resolve(boolean useCdn, String scheme, String path) {
+        if (path == null) {
+            return null;
+        }
+
+        String key = useCdn ? scheme : null;
+
+        return cached(cache, new Key(path, useCdn, key), () -> resolveUncached(useCdn, key, path));
+    }
+
+    /*
+     * Bounded memoization: an arbitrary entry is evicted when the map is
+     * full.  Nothing is cached if the cache size is 0.
+     */
+    private <T> T cached(ConcurrentHashMap<Key,T> map, Key key, Supplier<T> supplier) {
+        int cacheSize = this.cacheSize;
+        T value = (cacheSize > 0) ? map.get(key) : null;
+
+        if (value == null) {
+            value = supplier.get();
+
+            if (cacheSize > 0) {
+                if (map.size() >= cacheSize) {
+                    Iterator<Key> iterator = map.keySet().iterator();
+
+                    if (iterator.hasNext()) {
+                        iterator.next();
+                        iterator.remove();
+                    }
+                }
+
+                map.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    private String resolveUncached(boolean useCdn, String scheme, String path) {
+        try {
+            path = path(WebJarsIndex.get(), useCdn, scheme, path);
+        } catch (IllegalArgumentException exception) {
+            path = fingerprint(path);
+        }
+
+        return path;
+    }
+
+    /*
+     * Only local absolute paths are fingerprinted; any query or fragment
+     * is preserved.
+     */
+    private String fingerprint(String path) {
+        UnaryOperator<String> fingerprinter = this.fingerprinter;
+
+        if (fingerprinter != null && path.startsWith("/") && (! path.startsWith("//"))) {
+            int end = path.length();
+
+            for (char character : new char[] { '?', '#' }) {
+                int index = path.indexOf(character);
+
+                if (index >= 0) {
+                    end = Math.min(end, index);
+                }
+            }
+
+            String fingerprinted = fingerprinter.apply(path.substring(0, end));
+
+            if (fingerprinted != null) {
+                path = fingerprinted + path.substring(end);
+            }
+        }
+
+        return path;
+    }
+
+    private String path(WebJarsIndex index, boolean useCdn, String scheme, String path) {
+        String resource = index.getFullPath(path);
         Matcher matcher = PATTERN.matcher(resource);
 
         if (matcher.matches()) {
             /*
-             * FIX: groupId will always be null in a shaded JAR.
+             * groupId will be null in a shaded JAR unless it was recorded
+             * in the build-time index.
              */
-            String groupId = locator.groupId(resource);
+            String groupId = index.groupId(resource);
 
-            if (useCdn && groupId != null) {
-                path = String.format(CDN_FORMAT, (scheme != null) ? scheme : "http", groupId, matcher.group("path"));
-            } else {
-                path = String.format(LOCAL_FORMAT, matcher.group("path"));
+            path = String.format(LOCAL_FORMAT, matcher.group("path"));
+
+            if (useCdn && groupId != null && (! isExcluded(path))) {
+                path =
+                    cdnUrl
+                    .replace(SCHEME_VAR, (scheme != null) ? scheme : DEFAULT_SCHEME)
+                    .replace(GROUP_ID_VAR, groupId)
+                    .replace(PATH_VAR, matcher.group("path"));
             }
         }
 
         return path;
     }
 
+    private boolean isExcluded(String path) {
+        return Stream.of(cdnExcludes).anyMatch(t -> MATCHER.match(t, path));
+    }
+
     @ToString
-    private static class PathAttributeTagProcessor extends AbstractAttributeTagProcessor {
-        private final WebJarAssetLocator locator = new WebJarAssetLocator();
+    private class PathAttributeTagProcessor extends AbstractAttributeTagProcessor {
+        private static final String SCHEME = "${#request.scheme}";
+        private static final String PREPROCESS = "__";
+        private static final int EXPRESSIONS_SIZE = 1024;
+
+        @ToString.Exclude
+        private final ConcurrentHashMap<String,IStandardExpression> expressions = new ConcurrentHashMap<>();
+        private volatile IStandardExpression scheme = null;
 
         public PathAttributeTagProcessor(String prefix, String name) {
             super(HTML, prefix, null, false, name, true, PRECEDENCE, true);
@@ -121,24 +546,139 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
 
         @Override
         protected void doProcess(ITemplateContext context, IProcessableElementTag tag, AttributeName name, String value, IElementTagStructureHandler handler) {
-            IEngineConfiguration configuration = context.getConfiguration();
-            IStandardExpressionParser parser = StandardExpressions.getExpressionParser(configuration);
-            IStandardExpression expression = parser.parseExpression(context, value);
-            String path = (String) expression.execute(context);
-            String scheme = (String) parser.parseExpression(context, "${#request.scheme}").execute(context);
+            LongConsumer timer = processorTimer;
+            long start = (timer != null) ? System.nanoTime() : 0;
+
+            process(context, tag, name, value, handler);
 
-            try {
-                path = path(locator, false, scheme, path);
-            } catch (IllegalArgumentException exception) {
+            if (timer != null) {
+                timer.accept(System.nanoTime() - start);
             }
+        }
+
+        private void process(ITemplateContext context, IProcessableElementTag tag, AttributeName name, String value, IElementTagStructureHandler handler) {
+            String path = (String) expression(context, value).execute(context);
+            boolean useCdn = isUseCdn();
+            String scheme = useCdn ? scheme(context) : null;
+
+            path = resolve(useCdn, scheme, path);
 
             handler.setAttribute(name.getAttributeName(), path);
+
+            if (isPreload() && path != null) {
+                String as = as(tag, name.getAttributeName());
+
+                if (as != null) {
+                    preload(context, useCdn, scheme, String.format(PRELOAD_FORMAT, path, as));
+                }
+            }
+        }
+
+        /*
+         * Only the critical (render-blocking) scripts and style sheets are
+         * preloaded.
+         */
+        private String as(IProcessableElementTag tag, String attribute) {
+            String element = tag.getElementCompleteName();
+            String as = null;
+
+            if ("script".equalsIgnoreCase(element) && "src".equals(attribute)) {
+                as = "script";
+            } else if ("link".equalsIgnoreCase(element) && "href".equals(attribute)) {
+                String rel = tag.getAttributeValue("rel");
+
+                if (rel != null && Stream.of(rel.trim().split("[\\p{Space}]+")).anyMatch("stylesheet"::equalsIgnoreCase)) {
+                    as = "style";
+                }
+            }
+
+            return as;
+        }
+
+        /*
+         * The link is recorded against the outermost template (fragments
+         * are recorded with the page that includes them) and added to the
+         * response if it has not already been sent.
+         */
+        private void preload(ITemplateContext context, boolean useCdn, String scheme, String link) {
+            String template = context.getTemplateStack().get(0).getTemplate();
+            Set<String> set =
+                cached(preloads, new Key(template, useCdn, useCdn ? scheme : null),
+                       () -> Collections.synchronizedSet(new LinkedHashSet<>()));
+
+            synchronized (set) {
+                if (set.size() < MAX_PRELOADS) {
+                    set.add(link);
+                }
+            }
+
+            if (context instanceof IWebContext) {
+                HttpServletRequest request = ((IWebContext) context).getRequest();
+                HttpServletResponse response = ((IWebContext) context).getResponse();
+                @SuppressWarnings("unchecked")
+                Set<String> preloaded = (Set<String>) request.getAttribute(PRELOADED);
+
+                if (preloaded == null) {
+                    preloaded = new LinkedHashSet<>();
+                    request.setAttribute(PRELOADED, preloaded);
+                }
+
+                if (response != null && (! response.isCommitted())
+                    && preloaded.size() < MAX_PRELOADS && preloaded.add(link)) {
+                    response.addHeader(LINK, link);
+                }
+            }
+        }
+
+        /*
+         * Parsed IStandardExpressions are immutable and may be reused
+         * unless the value requires (context-dependent) preprocessing.
+         */
+        private IStandardExpression expression(ITemplateContext context, String value) {
+            IStandardExpression expression = expressions.get(value);
+
+            if (expression == null) {
+                expression = parser(context).parseExpression(context, value);
+
+                if ((! value.contains(PREPROCESS)) && expressions.size() < EXPRESSIONS_SIZE) {
+                    expressions.put(value, expression);
+                }
+            }
+
+            return expression;
+        }
+
+        /*
+         * The request scheme is read directly from the IWebContext
+         * request; otherwise, the (parsed once) ${#request.scheme}
+         * expression is evaluated.
+         */
+        private String scheme(ITemplateContext context) {
+            String scheme = null;
+
+            if (context instanceof IWebContext) {
+                scheme = ((IWebContext) context).getRequest().getScheme();
+            } else {
+                IStandardExpression expression = this.scheme;
+
+                if (expression == null) {
+                    this.scheme = expression = parser(context).parseExpression(context, SCHEME);
+                }
+
+                scheme = (String) expression.execute(context);
+            }
+
+            return scheme;
+        }
+
+        private IStandardExpressionParser parser(ITemplateContext context) {
+            return StandardExpressions.getExpressionParser(context.getConfiguration());
         }
     }
 
     @NoArgsConstructor @ToString
-    private static class ExpressionObjectFactory implements IExpressionObjectFactory {
-        private final Map<String,Object> map = Collections.singletonMap(PREFIX, new WebJars());
+    private class ExpressionObjectFactory implements IExpressionObjectFactory {
+        private final Map<String,Object> map = Collections.singletonMap(PREFIX, new WebJars(WebJarsDialect.this));
 
         @Override
         public Set<String> getAllExpressionObjectNames() {
@@ -159,18 +699,29 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
     /**
      * {@link WebJars} Thymeleaf dialect expression object implementation.
      */
-    @NoArgsConstructor @ToString
+    @ToString
     public static class WebJars {
         @CompileTimeCheck
         private static final Pattern PATTERN = Pattern.compile("(?i)[\\p{Space},]+");
+        private static final String WILDCARDS = "*?{}";
 
-        private final WebJarAssetLocator locator = new WebJarAssetLocator();
-        private final Set<String> assets = locator.listAssets();
+        @ToString.Exclude
+        private final WebJarsDialect dialect;
+        @Getter(value = PRIVATE, lazy = true)
+        private final SortedSet<String> assets = WebJarsIndex.get().listAssets();
         private final AntPathMatcher matcher = new AntPathMatcher();
 
+        /**
+         * Sole public constructor.
+         */
+        public WebJars() { this(new WebJarsDialect()); }
+
+        private WebJars(WebJarsDialect dialect) { this.dialect = dialect; }
+
         /**
          * Method to return WebJar resources matching {@link AntPathMatcher}
-         * patterns.
+         * patterns.  Resources are offloaded to the CDN if
+         * {@link WebJarsDialect#isUseCdn()}.
          *
          * @param   patterns        The {@link AntPathMatcher} patterns to
          *                          match.
@@ -178,12 +729,14 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
          * @return  The matching resource paths.
          */
         public Collection<String> assets(String... patterns) {
-            return assets(false, null, patterns);
+            return assets(dialect.isUseCdn(), null, patterns);
         }
 
         /**
          * Method to return WebJar resources matching {@link AntPathMatcher}
-         * patterns.
+         * patterns.  Results are memoized by ({@code useCdn},
+         * {@code scheme}, {@code patterns}) (see
+         * {@link WebJarsDialect#setCacheSize(int)}).
          *
          * @param   useCdn          {@code true} to provide a CDN
          *                          {@code URI}; {@code false} for a local
@@ -195,14 +748,130 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
          * @return  The matching resource paths.
          */
         public Collection<String> assets(boolean useCdn, String scheme, String... patterns) {
+            Key key = new Key(String.join(",", patterns), useCdn, useCdn ? scheme : null);
+
+            return dialect.cached(dialect.assets, key, () -> match(useCdn, scheme, patterns));
+        }
+
+        private Collection<String> match(boolean useCdn, String scheme, String... patterns) {
             Collection<String> collection =
                 Stream.of(patterns)
                 .flatMap(t -> PATTERN.splitAsStream(t))
-                .flatMap(t -> assets.stream().filter(a -> matcher.match(t, a)))
-                .map(t -> path(locator, useCdn, scheme, t))
+                .filter(t -> (! t.isEmpty()))
+                .flatMap(t -> candidates(t).filter(a -> matcher.match(t, a)))
+                .map(t -> dialect.resolve(useCdn, scheme, t))
                 .collect(toCollection(LinkedHashSet::new));
 
-            return collection;
+            return Collections.unmodifiableCollection(collection);
+        }
+
+        /*
+         * Any match must start with the pattern's literal prefix (the
+         * sorted asset set is searched by range) and end with its literal
+         * suffix so only the remaining candidates are matched with the
+         * AntPathMatcher.
+         */
+        private Stream<String> candidates(String pattern) {
+            int start = 0;
+
+            while (start < pattern.length() && WILDCARDS.indexOf(pattern.charAt(start)) < 0) {
+                start += 1;
+            }
+
+            int end = pattern.length();
+
+            while (end > start && WILDCARDS.indexOf(pattern.charAt(end - 1)) < 0) {
+                end -= 1;
+            }
+
+            String prefix = pattern.substring(0, start);
+            String suffix = pattern.substring(end);
+            SortedSet<String> assets = getAssets();
+
+            if (! prefix.isEmpty()) {
+                assets = assets.subSet(prefix, prefix + Character.MAX_VALUE);
+            }
+
+            return assets.stream().filter(t -> t.endsWith(suffix));
+        }
+
+        /**
+         * Method to bundle WebJar assets into a single resource.  Minified
+         * ({@code .min.}) variants are used where available.  Typical
+         * Thymeleaf usage:
+         *
+         * {@code <script th:src="@{${#webjars.bundle('jquery.js', 'bootstrap.js')}}"></script>}.
+         *
+         * @param   patterns        The (partial) paths or
+         *                          {@link AntPathMatcher} patterns of the
+         *                          assets to bundle, in order.
+         *
+         * @return  The bundle path.
+         *
+         * @see #bundle(boolean,String...)
+         */
+        public String bundle(String... patterns) {
+            return bundle(true, patterns);
+        }
+
+        /**
+         * Method to bundle WebJar assets into a single resource.  The
+         * assets (all JavaScript or all CSS) are concatenated in order
+         * into a {@link WebJarsBundle} named by the hash of its content
+         * and served by {@code WebJarsResourceController}.  Results are
+         * memoized by ({@code minify}, {@code patterns}) (see
+         * {@link WebJarsDialect#setCacheSize(int)}).
+         *
+         * @param   minify          {@code true} to use minified
+         *                          ({@code .min.}) variants where
+         *                          available.
+         * @param   patterns        The (partial) paths or
+         *                          {@link AntPathMatcher} patterns of the
+         *                          assets to bundle, in order.
+         *
+         * @return  The bundle path.
+         *
+         * @throws  IllegalArgumentException
+         *                          If no assets match or the assets
+         *                          cannot be bundled together.
+         */
+        public String bundle(boolean minify, String... patterns) {
+            Key key = new Key(String.join(",", patterns), minify, null);
+
+            return dialect.cached(dialect.bundles, key, () -> WebJarsBundle.of(resources(minify, patterns)).getPath());
+        }
+
+        /*
+         * Patterns without wildcards are resolved as partial paths.
+         */
+        private List<String> resources(boolean minify, String... patterns) {
+            WebJarsIndex index = WebJarsIndex.get();
+            List<String> list =
+                Stream.of(patterns)
+                .flatMap(t -> PATTERN.splitAsStream(t))
+                .filter(t -> (! t.isEmpty()))
+                .flatMap(t -> (t.chars().anyMatch(c -> WILDCARDS.indexOf(c) >= 0)
+                                   ? candidates(t).filter(a -> matcher.match(t, a))
+                                   : Stream.of(index.getFullPath(t))))
+                .map(t -> minify ? minified(index, t) : t)
+                .distinct()
+                .collect(toList());
+
+            return list;
+        }
+
+        private String minified(WebJarsIndex index, String resource) {
+            int dot = resource.lastIndexOf('.');
+
+            if (dot > resource.lastIndexOf('/') && (! resource.contains(".min."))) {
+                String minified = resource.substring(0, dot) + ".min" + resource.substring(dot);
+
+                if (index.contains(minified)) {
+                    resource = minified;
+                }
+            }
+
+            return resource;
         }
 
         /**
@@ -214,23 +883,31 @@ public class WebJarsDialect extends AbstractProcessorDialect implements IExpress
          * @param   scheme          The {@code URI} scheme.
          * @param   path            The (possibly partial) path.
          *
-         * @return  The CDN URI if one may be constructed; {@code path}
-         *          otherwise.
+         * @return  The CDN URI if one may be constructed; the local path
+         *          if {@code path} is an excluded (see
+         *          {@link WebJarsDialect#setCdnExcludes(String...)}) WebJar
+         *          asset; {@code path} otherwise.
          */
         public String cdn(String scheme, String path) {
-            try {
-                path = path(locator, false, null, path);
-            } catch (IllegalArgumentException exception) {
-            }
-
-            return path;
+            return dialect.resolve(true, scheme, path);
         }
 
         /**
-         * See {@link WebJarAssetLocator#getWebJars()}.
+         * See {@link WebJarsIndex#getWebJars()}.
          *
-         * @return  Result of {@link WebJarAssetLocator#getWebJars()} call.
+         * @return  Result of {@link WebJarsIndex#getWebJars()} call.
          */
-        public Map<String,String> getJars() { return locator.getWebJars(); }
+        public Map<String,String> getJars() { return WebJarsIndex.get().getWebJars(); }
+    }
+
+    /*
+     * path is the (comma-joined) patterns for WebJars.assets() and
+     * WebJars.bundle() keys; useCdn is minify for bundle() keys.
+     */
+    @AllArgsConstructor @EqualsAndHashCode @ToString
+    private static class Key {
+        private final String path;
+        private final boolean useCdn;
+        private final String scheme;
     }
 }
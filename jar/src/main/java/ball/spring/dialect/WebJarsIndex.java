@@ -0,0 +1,450 @@
+package ball.spring.dialect;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.webjars.WebJarAssetLocator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * WebJar asset index.  Provides the subset of the
+ * {@link WebJarAssetLocator} API used by {@link WebJarsDialect} from a
+ * {@value #RESOURCE} resource written at build time by
+ * {@link #main(String[])}.  The index also records each WebJar's
+ * {@code groupId} which cannot be recovered by scanning a shaded JAR.
+ * This library does not ship an index: only the application build, which
+ * sees the final set of WebJars, should generate one, e.g.:
+ *
+ * <pre>{@code
+ * <plugin>
+ *   <groupId>org.codehaus.mojo</groupId>
+ *   <artifactId>exec-maven-plugin</artifactId>
+ *   <executions>
+ *     <execution>
+ *       <id>webjars-index</id>
+ *       <phase>process-classes</phase>
+ *       <goals><goal>java</goal></goals>
+ *       <configuration>
+ *         <mainClass>ball.spring.dialect.WebJarsIndex</mainClass>
+ *         <arguments>
+ *           <argument>${project.build.outputDirectory}/META-INF/ball-spring/webjars.index</argument>
+ *         </arguments>
+ *         <classpathScope>runtime</classpathScope>
+ *       </configuration>
+ *     </execution>
+ *   </executions>
+ * </plugin>
+ * }</pre>
+ *
+ * The index is used only if it is current: one indexed asset of every
+ * indexed WebJar (and so its version) must be found on the class path (one
+ * {@link ClassLoader#getResource(String)} lookup per WebJar) and there must
+ * not be more {@code META-INF/resources/webjars} class path roots than
+ * indexed WebJars.  No JAR directory is enumerated.  Otherwise, or if
+ * there is no index, the class path is scanned with a
+ * {@link WebJarAssetLocator}.
+ *
+ * <p>Index format (UTF-8, one entry per line):</p>
+ * <pre>
+ * # comment
+ * @artifactId version groupId
+ * path/relative/to/META-INF/resources/webjars/artifactId/
+ * ...
+ * </pre>
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class WebJarsIndex {
+    /**
+     * Index resource name.
+     */
+    public static final String RESOURCE = "META-INF/ball-spring/webjars.index";
+
+    private static final String PREFIX = WebJarAssetLocator.WEBJARS_PATH_PREFIX + "/";
+    private static final String COMMENT = "#";
+    private static final String HEADER = "@";
+    private static final String NONE = "-";
+
+    /**
+     * Method to get the shared {@link WebJarsIndex} for the class path.
+     * The instance is created on first use.
+     *
+     * @return  The shared {@link WebJarsIndex}.
+     */
+    public static WebJarsIndex get() { return Holder.INSTANCE; }
+
+    /**
+     * Method to load the {@value #RESOURCE} resources visible to a
+     * {@link ClassLoader}, falling back to scanning if there are none or
+     * they are incomplete.
+     *
+     * @param   loader          The {@link ClassLoader}.
+     *
+     * @return  The {@link WebJarsIndex}.
+     */
+    public static WebJarsIndex load(ClassLoader loader) {
+        WebJarsIndex index = null;
+
+        try {
+            index = read(loader);
+        } catch (IOException exception) {
+            log.warn("Cannot read {}: {}", RESOURCE, exception.getMessage());
+        }
+
+        if (index == null) {
+            index = scan(new WebJarAssetLocator(loader));
+        }
+
+        return index;
+    }
+
+    private static WebJarsIndex read(ClassLoader loader) throws IOException {
+        WebJarsIndex index = null;
+        Enumeration<URL> resources = loader.getResources(RESOURCE);
+
+        if (resources.hasMoreElements()) {
+            index = new WebJarsIndex();
+
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), UTF_8))) {
+                    index.read(reader);
+                }
+            }
+
+            if (! index.isCurrent(loader)) {
+                log.info("{} does not match the WebJars on the class path; scanning class path", RESOURCE);
+                index = null;
+            }
+        }
+
+        return index;
+    }
+
+    /*
+     * Point lookups only: one indexed asset per indexed WebJar must be
+     * present and a WebJar added to the class path since the index was
+     * written is detected by its additional class path root.
+     */
+    private boolean isCurrent(ClassLoader loader) throws IOException {
+        Map<String,String> probes = new TreeMap<>();
+
+        for (String path : assets) {
+            String artifactId = artifactId(path);
+
+            if (artifactId != null) {
+                probes.putIfAbsent(artifactId, path);
+            }
+        }
+
+        boolean current = probes.keySet().equals(versions.keySet());
+
+        if (current) {
+            for (String path : probes.values()) {
+                if (loader.getResource(path) == null) {
+                    current = false;
+                    break;
+                }
+            }
+        }
+
+        if (current) {
+            List<URL> roots = Collections.list(loader.getResources(WebJarAssetLocator.WEBJARS_PATH_PREFIX));
+
+            current = (roots.size() <= versions.size());
+        }
+
+        return current;
+    }
+
+    /**
+     * Method to create a {@link WebJarsIndex} by scanning the class path
+     * with a {@link WebJarAssetLocator}.
+     *
+     * @param   locator         The {@link WebJarAssetLocator}.
+     *
+     * @return  The {@link WebJarsIndex}.
+     */
+    public static WebJarsIndex scan(WebJarAssetLocator locator) {
+        WebJarsIndex index = new WebJarsIndex();
+
+        index.versions.putAll(locator.getWebJars());
+
+        for (String path : locator.listAssets()) {
+            String artifactId = artifactId(path);
+
+            if (artifactId != null) {
+                index.versions.putIfAbsent(artifactId, null);
+
+                if (! index.groupIds.containsKey(artifactId)) {
+                    index.groupIds.put(artifactId, locator.groupId(path));
+                }
+
+                index.add(path);
+            }
+        }
+
+        return index;
+    }
+
+    @ToString.Include
+    private final Map<String,String> versions = new TreeMap<>();
+    @ToString.Include
+    private final Map<String,String> groupIds = new TreeMap<>();
+    private final SortedSet<String> assets = new TreeSet<>();
+    private final Map<String,List<String>> names = new HashMap<>();
+
+    private WebJarsIndex() { }
+
+    private void read(BufferedReader reader) throws IOException {
+        String base = null;
+        String line = null;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith(COMMENT)) {
+                continue;
+            }
+
+            if (line.startsWith(HEADER)) {
+                String[] fields = line.substring(HEADER.length()).split("[\\p{Space}]+");
+
+                if (fields.length != 3) {
+                    throw new IOException("Invalid header: " + line);
+                }
+
+                base = PREFIX + fields[0] + "/";
+
+                versions.put(fields[0], value(fields[1]));
+                groupIds.put(fields[0], value(fields[2]));
+            } else if (base != null) {
+                add(base + line);
+            } else {
+                throw new IOException("Asset precedes header: " + line);
+            }
+        }
+    }
+
+    private void add(String path) {
+        if (assets.add(path)) {
+            names.computeIfAbsent(path.substring(path.lastIndexOf('/') + 1), k -> new ArrayList<>(1))
+                .add(path);
+        }
+    }
+
+    /**
+     * Method to write this index in {@value #RESOURCE} format.
+     *
+     * @param   writer          The target {@link Writer}.
+     */
+    public void write(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+
+        out.println(COMMENT + " " + getClass().getName());
+
+        for (String artifactId : versions.keySet()) {
+            String base = PREFIX + artifactId + "/";
+
+            out.println(HEADER + artifactId
+                        + " " + Objects.toString(versions.get(artifactId), NONE)
+                        + " " + Objects.toString(groupIds.get(artifactId), NONE));
+
+            for (String path : assets.tailSet(base)) {
+                if (! path.startsWith(base)) {
+                    break;
+                }
+
+                out.println(path.substring(base.length()));
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * See {@link WebJarAssetLocator#getFullPath(String)}.
+     *
+     * @param   partialPath     The partial path.
+     *
+     * @return  The full path of the unique asset ending with
+     *          {@code partialPath}.
+     *
+     * @throws  IllegalArgumentException
+     *                          If there is not exactly one matching asset.
+     */
+    public String getFullPath(String partialPath) {
+        return getFullPath(PREFIX, partialPath);
+    }
+
+    /**
+     * See {@link WebJarAssetLocator#getFullPath(String,String)}.
+     *
+     * @param   webjar          The WebJar {@code artifactId}.
+     * @param   partialPath     The partial path.
+     *
+     * @return  The full path of the unique {@code webjar} asset ending
+     *          with {@code partialPath}.
+     *
+     * @throws  IllegalArgumentException
+     *                          If there is not exactly one matching asset.
+     */
+    public String getFullPath(String webjar, String partialPath) {
+        return getFullPath(PREFIX + webjar + "/", partialPath);
+    }
+
+    private String getFullPath(String base, String partialPath) {
+        String name = partialPath.substring(partialPath.lastIndexOf('/') + 1);
+        String match = null;
+
+        for (String path : names.getOrDefault(name, Collections.emptyList())) {
+            if (path.startsWith(base) && matches(path, partialPath)) {
+                if (match != null) {
+                    throw new IllegalArgumentException("Multiple matches found for " + partialPath);
+                }
+
+                match = path;
+            }
+        }
+
+        if (match == null) {
+            throw new IllegalArgumentException(partialPath + " not found");
+        }
+
+        return match;
+    }
+
+    /**
+     * Method to test if a full path is an indexed asset.
+     *
+     * @param   path            The full path.
+     *
+     * @return  {@code true} if {@code path} is an asset; {@code false}
+     *          otherwise.
+     */
+    public boolean contains(String path) { return assets.contains(path); }
+
+    private static boolean matches(String path, String partialPath) {
+        int start = path.length() - partialPath.length();
+
+        return (path.endsWith(partialPath)
+                && (start == 0 || partialPath.startsWith("/") || path.charAt(start - 1) == '/'));
+    }
+
+    /**
+     * See {@link WebJarAssetLocator#groupId(String)}.
+     *
+     * @param   path            The full path of the asset.
+     *
+     * @return  The asset's WebJar {@code groupId} (may be {@code null}).
+     */
+    public String groupId(String path) {
+        String artifactId = artifactId(path);
+
+        return (artifactId != null) ? groupIds.get(artifactId) : null;
+    }
+
+    /**
+     * See {@link WebJarAssetLocator#listAssets()}.
+     *
+     * @return  The (sorted) full paths of all assets.
+     */
+    public SortedSet<String> listAssets() {
+        return Collections.unmodifiableSortedSet(assets);
+    }
+
+    /**
+     * See {@link WebJarAssetLocator#getWebJars()}.
+     *
+     * @return  The {@link Map} of WebJar {@code artifactId}s to versions.
+     */
+    public Map<String,String> getWebJars() {
+        return Collections.unmodifiableMap(versions);
+    }
+
+    private static String artifactId(String path) {
+        String artifactId = null;
+
+        if (path.startsWith(PREFIX)) {
+            int end = path.indexOf('/', PREFIX.length());
+
+            if (end > PREFIX.length()) {
+                artifactId = path.substring(PREFIX.length(), end);
+            }
+        }
+
+        return artifactId;
+    }
+
+    private static String value(String field) {
+        return NONE.equals(field) ? null : field;
+    }
+
+    /**
+     * Build-time index generator.  Scans the class path and writes the
+     * index to the file named by the first argument.
+     *
+     * @param   argv            The command line arguments.
+     *
+     * @throws  Exception       If the index cannot be written.
+     */
+    public static void main(String[] argv) throws Exception {
+        if (argv.length != 1) {
+            throw new IllegalArgumentException("Usage: " + WebJarsIndex.class.getName() + " <file>");
+        }
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        WebJarsIndex index = scan(new WebJarAssetLocator(loader));
+        File file = new File(argv[0]);
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+            index.write(writer);
+        }
+
+        log.info("Wrote {} ({} WebJars, {} assets)", file, index.versions.size(), index.assets.size());
+    }
+
+    private static class Holder {
+        private static final WebJarsIndex INSTANCE = load(WebJarsIndex.class.getClassLoader());
+    }
+}
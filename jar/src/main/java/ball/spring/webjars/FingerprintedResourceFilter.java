@@ -0,0 +1,139 @@
+package ball.spring.webjars;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.annotation.CompileTimeCheck;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static org.springframework.http.HttpHeaders.CACHE_CONTROL;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.HEAD;
+
+/**
+ * {@link javax.servlet.Filter} to mark content-hash fingerprinted static
+ * resource responses ({@code name-<md5>.ext} as generated by
+ * {@link org.springframework.web.servlet.resource.ContentVersionStrategy})
+ * {@value WebJarsResourceController#IMMUTABLE}.  The header is only set
+ * on successful ({@code 2xx}) and {@code 304} responses, once the status
+ * is known (when the body is first written or the chain returns), so
+ * error responses for fingerprinted paths are never cached.  The resource
+ * handler must not be configured with its own cache period (the default).
+ *
+ * @see ball.spring.dialect.WebJarsDialect#setFingerprinter(java.util.function.UnaryOperator)
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@NoArgsConstructor @ToString @Log4j2
+public class FingerprintedResourceFilter extends OncePerRequestFilter {
+    @CompileTimeCheck
+    private static final Pattern PATTERN = Pattern.compile("(?i).*/[^/]*-[0-9a-f]{32}[.][^/]*");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        String method = request.getMethod();
+
+        if ((GET.name().equals(method) || HEAD.name().equals(method))
+            && PATTERN.matcher(request.getRequestURI()).matches()) {
+            ResponseWrapper wrapper = new ResponseWrapper(response);
+
+            chain.doFilter(request, wrapper);
+
+            if (! response.isCommitted()) {
+                wrapper.mark();
+            }
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /*
+     * Sets the Cache-Control header (if the status is successful) before
+     * the response can be committed.
+     */
+    @ToString
+    private static class ResponseWrapper extends HttpServletResponseWrapper {
+        private boolean marked = false;
+
+        public ResponseWrapper(HttpServletResponse response) { super(response); }
+
+        private void mark() {
+            if (! marked) {
+                int status = getStatus();
+
+                if ((200 <= status && status < 300) || status == SC_NOT_MODIFIED) {
+                    setHeader(CACHE_CONTROL, WebJarsResourceController.IMMUTABLE);
+                }
+
+                marked = true;
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            mark();
+
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            mark();
+
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            mark();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            marked = true;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            marked = true;
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            marked = true;
+            super.sendRedirect(location);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package ball.spring.webjars;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.spring.webjars.WebJarsResourceController.Asset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Off-heap store for the most requested WebJar assets (see
+ * {@link WebJarsResourceController#setStore(WebJarsAssetStore)}).  Every
+ * request is counted; once an asset has been requested
+ * {@link #getThreshold()} times its (uncompressed and compressed)
+ * representations are copied into direct {@link java.nio.ByteBuffer}s and
+ * served from there without jar I/O or per-asset heap buffers (content is
+ * copied to the response through a reused per-thread array).  The store
+ * is bounded by {@link #getCapacity()} bytes.  Admission while there is
+ * free capacity is lock-free; otherwise the asset becomes a candidate and
+ * a periodic rebalance (at most once per second, skipped if another
+ * thread is rebalancing) displaces resident assets with fewer requests
+ * (coldest first) in favor of hotter candidates.  Displaced buffers are
+ * released when garbage collected.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(onlyExplicitlyIncluded = true) @Log4j2
+public class WebJarsAssetStore {
+    /**
+     * Default {@link #getCapacity()}.
+     */
+    public static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+
+    /**
+     * Default {@link #getThreshold()}.
+     */
+    public static final int DEFAULT_THRESHOLD = 16;
+
+    private static final long REBALANCE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_CANDIDATES = 64;
+
+    @ToString.Include
+    private final long capacity;
+    @ToString.Include
+    private final int threshold;
+    private final ConcurrentHashMap<String,LongAdder> requests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Asset> assets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Asset> candidates = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong rebalance = new AtomicLong(System.nanoTime());
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Construct a store with {@link #DEFAULT_CAPACITY} and
+     * {@link #DEFAULT_THRESHOLD}.
+     */
+    public WebJarsAssetStore() { this(DEFAULT_CAPACITY, DEFAULT_THRESHOLD); }
+
+    /**
+     * Sole non-default constructor.
+     *
+     * @param   capacity        The maximum number of off-heap bytes.
+     * @param   threshold       The number of requests before an asset is
+     *                          admitted.
+     */
+    public WebJarsAssetStore(long capacity, int threshold) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+
+        this.capacity = capacity;
+        this.threshold = threshold;
+    }
+
+    /*
+     * Counts the request and returns the resident (direct) asset, if any.
+     */
+    Asset get(String resource) {
+        requests.computeIfAbsent(resource, k -> new LongAdder()).increment();
+
+        Asset asset = assets.get(resource);
+
+        if (asset != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return asset;
+    }
+
+    /*
+     * Admits the asset if it is hot enough and fits in the free capacity;
+     * returns the direct copy or null if not admitted.  A hot asset that
+     * does not fit is left for the next rebalance.
+     */
+    Asset offer(Asset asset) {
+        String resource = asset.resource();
+        Asset direct = assets.get(resource);
+
+        if (direct == null && count(resource) >= threshold && asset.size() <= capacity) {
+            direct = admit(asset);
+
+            if (direct == null) {
+                if (candidates.size() < MAX_CANDIDATES) {
+                    candidates.putIfAbsent(resource, asset);
+                }
+
+                rebalance();
+            }
+        }
+
+        return direct;
+    }
+
+    private Asset admit(Asset asset) {
+        Asset direct = null;
+        long size = asset.size();
+        long current = bytes.get();
+
+        while (current + size <= capacity) {
+            if (bytes.compareAndSet(current, current + size)) {
+                direct = asset.direct();
+
+                Asset resident = assets.putIfAbsent(asset.resource(), direct);
+
+                if (resident != null) {
+                    bytes.addAndGet(- size);
+                    direct = resident;
+                }
+
+                break;
+            }
+
+            current = bytes.get();
+        }
+
+        return direct;
+    }
+
+    /*
+     * Amortized: at most once per REBALANCE_INTERVAL and never waits for
+     * another thread's rebalance.
+     */
+    private void rebalance() {
+        long now = System.nanoTime();
+        long next = rebalance.get();
+
+        if (now - next >= 0 && rebalance.compareAndSet(next, now + REBALANCE_INTERVAL) && lock.tryLock()) {
+            try {
+                /*
+                 * Counts are snapshot: they change while sorting.
+                 */
+                Map<String,Long> counts =
+                    assets.keySet().stream()
+                    .collect(toMap(identity(), this::count));
+                Map<Asset,Long> hot =
+                    candidates.values().stream()
+                    .collect(toMap(identity(), t -> count(t.resource())));
+                List<Asset> hotter =
+                    hot.entrySet().stream()
+                    .sorted(Map.Entry.<Asset,Long>comparingByValue().reversed())
+                    .map(Map.Entry::getKey)
+                    .collect(toList());
+
+                candidates.clear();
+
+                for (Asset asset : hotter) {
+                    long count = hot.get(asset);
+                    List<String> colder =
+                        counts.entrySet().stream()
+                        .filter(t -> t.getValue() < count)
+                        .sorted(Map.Entry.comparingByValue())
+                        .map(Map.Entry::getKey)
+                        .collect(toList());
+                    long available =
+                        capacity - bytes.get()
+                        + colder.stream().map(assets::get).filter(t -> t != null).mapToLong(Asset::size).sum();
+
+                    if (available >= asset.size()) {
+                        for (String key : colder) {
+                            if (bytes.get() + asset.size() <= capacity) {
+                                break;
+                            }
+
+                            evict(key);
+                            counts.remove(key);
+                        }
+
+                        if (admit(asset) != null) {
+                            counts.put(asset.resource(), count);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void evict(String key) {
+        Asset evicted = assets.remove(key);
+
+        if (evicted != null) {
+            bytes.addAndGet(- evicted.size());
+            evictions.increment();
+        }
+    }
+
+    private long count(String resource) {
+        LongAdder count = requests.get(resource);
+
+        return (count != null) ? count.sum() : 0;
+    }
+
+    /**
+     * Method to get the maximum number of off-heap bytes.
+     *
+     * @return  The capacity.
+     */
+    public long getCapacity() { return capacity; }
+
+    /**
+     * Method to get the number of requests before an asset is admitted.
+     *
+     * @return  The threshold.
+     */
+    public int getThreshold() { return threshold; }
+
+    /**
+     * Method to get the number of off-heap bytes in use.
+     *
+     * @return  The number of bytes.
+     */
+    public long getBytes() { return bytes.get(); }
+
+    /**
+     * Method to get the number of requests served from the store.
+     *
+     * @return  The hit count.
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * Method to get the number of requests not served from the store.
+     *
+     * @return  The miss count.
+     */
+    public long getMisses() { return misses.sum(); }
+
+    /**
+     * Method to get the number of assets displaced from the store.
+     *
+     * @return  The eviction count.
+     */
+    public long getEvictions() { return evictions.sum(); }
+
+    /**
+     * Method to get the number of resident assets.
+     *
+     * @return  The number of assets.
+     */
+    public int size() { return assets.size(); }
+
+    /**
+     * Method to remove all assets and reset the request counts.
+     */
+    public void clear() {
+        lock.lock();
+
+        try {
+            candidates.clear();
+
+            for (String key : assets.keySet()) {
+                Asset asset = assets.remove(key);
+
+                if (asset != null) {
+                    bytes.addAndGet(- asset.size());
+                }
+            }
+
+            requests.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
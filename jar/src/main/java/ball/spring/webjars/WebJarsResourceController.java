@@ -0,0 +1,562 @@
+package ball.spring.webjars;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.spring.dialect.WebJarsBundle;
+import ball.spring.dialect.WebJarsIndex;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.HandlerMapping;
+import org.webjars.WebJarAssetLocator;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CACHE_CONTROL;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.HttpHeaders.VARY;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.HEAD;
+
+/**
+ * WebJars resource {@link Controller}.  Serves {@value #PATH}{@code **}
+ * from the {@link WebJarsIndex} in preference to the default class path
+ * resource handler; paths the index does not resolve are served from the
+ * class path (with {@value #REVALIDATE}) as before.  Versioned paths (as written by
+ * {@link ball.spring.dialect.WebJarsDialect}) are served with
+ * {@value #IMMUTABLE}; version-agnostic paths
+ * ({@code /webjars/artifactId/file}) are served with {@value #REVALIDATE}.
+ * Every response carries a strong {@code ETag} (the MD5 digest of the
+ * content) and matching {@code If-None-Match} requests are answered with
+ * {@code 304 Not Modified}.  {@link WebJarsBundle}s are served (with
+ * {@value #IMMUTABLE}) from {@value WebJarsBundle#PATH}{@code **}.
+ *
+ * <p>Compressible assets are gzipped once (at
+ * {@link Deflater#BEST_COMPRESSION}) when first loaded and the compressed
+ * variant is kept with the asset.  The JDK does not provide a Brotli
+ * encoder so Brotli ({@code br}) is served only if the WebJar provides a
+ * precompressed {@code .br} resource.  Loaded assets are cached on the
+ * heap up to {@link #setCacheBytes(long)}; the most requested assets may
+ * be promoted to an off-heap {@link WebJarsAssetStore} (see
+ * {@link #setStore(WebJarsAssetStore)}).</p>
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@Controller
+@RequestMapping(method = { GET, HEAD })
+@NoArgsConstructor @ToString @Log4j2
+public class WebJarsResourceController {
+    /**
+     * Request path prefix.
+     */
+    public static final String PATH = "/webjars/";
+
+    /**
+     * Versioned asset {@code Cache-Control}.
+     */
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * Version-agnostic asset {@code Cache-Control}.
+     */
+    public static final String REVALIDATE = "public, no-cache";
+
+    /**
+     * Default {@link #setCacheBytes(long)}.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final String ROOT = WebJarAssetLocator.WEBJARS_PATH_PREFIX + "/";
+    private static final String GZIP = "gzip";
+    private static final String BR = "br";
+    private static final int MIN_COMPRESSIBLE = 256;
+    private static final ThreadLocal<byte[]> TRANSFER = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
+
+    @ToString.Exclude
+    private final ConcurrentHashMap<String,Asset> cache = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    private final AtomicLong cached = new AtomicLong();
+    private volatile long cacheBytes = DEFAULT_CACHE_BYTES;
+    private volatile WebJarsAssetStore store = null;
+
+    /**
+     * Method to set the maximum number of (uncompressed and compressed)
+     * asset bytes to cache.  Specify {@code 0} to disable the cache.
+     *
+     * @param   cacheBytes      The maximum number of cached bytes.
+     */
+    public void setCacheBytes(long cacheBytes) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("cacheBytes must not be negative");
+        }
+
+        this.cacheBytes = cacheBytes;
+
+        cache.clear();
+        cached.set(0);
+    }
+
+    /**
+     * Method to get the maximum number of asset bytes to cache.
+     *
+     * @return  The maximum number of cached bytes.
+     *
+     * @see #setCacheBytes(long)
+     */
+    public long getCacheBytes() { return cacheBytes; }
+
+    /**
+     * Method to set the (optional) off-heap {@link WebJarsAssetStore} for
+     * the most requested assets.  Assets promoted to the store are removed
+     * from the heap cache.
+     *
+     * @param   store           The {@link WebJarsAssetStore} (may be
+     *                          {@code null}).
+     */
+    public void setStore(WebJarsAssetStore store) { this.store = store; }
+
+    /**
+     * Method to get the (optional) off-heap {@link WebJarsAssetStore}.
+     *
+     * @return  The {@link WebJarsAssetStore} (may be {@code null}).
+     *
+     * @see #setStore(WebJarsAssetStore)
+     */
+    public WebJarsAssetStore getStore() { return store; }
+
+    @RequestMapping(value = { PATH + "**" })
+    public void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+
+        if (path == null || (! path.startsWith(PATH))) {
+            throw new NoSuchElementException(path);
+        }
+
+        String name = path.substring(PATH.length());
+        WebJarsIndex index = WebJarsIndex.get();
+        String resource = ROOT + name;
+        boolean versioned = index.contains(resource);
+
+        if (! versioned) {
+            String full = null;
+            int slash = name.indexOf('/');
+
+            if (slash > 0) {
+                try {
+                    full = index.getFullPath(name.substring(0, slash), name.substring(slash + 1));
+                } catch (IllegalArgumentException exception) {
+                }
+            }
+
+            if (full != null) {
+                resource = full;
+            } else if (! isResource(name)) {
+                throw new NoSuchElementException(path);
+            }
+        }
+
+        String key = resource;
+
+        write(asset(key, () -> new Asset(key)), versioned, request, response);
+    }
+
+    /*
+     * Index misses (assets added after the index was built, non-WebJar
+     * files under META-INF/resources/webjars) are served from the class
+     * path as the default resource handler would.  Names with empty, "."
+     * or ".." segments are rejected.
+     */
+    private static boolean isResource(String name) {
+        boolean isResource = (! name.isEmpty()) && name.indexOf('\\') < 0;
+
+        if (isResource) {
+            for (String segment : name.split("/", -1)) {
+                if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                    isResource = false;
+                    break;
+                }
+            }
+        }
+
+        if (isResource) {
+            URL url = WebJarsResourceController.class.getClassLoader().getResource(ROOT + name);
+
+            isResource = (url != null);
+
+            if (isResource && "file".equals(url.getProtocol())) {
+                try {
+                    isResource = new File(url.toURI()).isFile();
+                } catch (URISyntaxException | IllegalArgumentException exception) {
+                    isResource = false;
+                }
+            }
+        }
+
+        return isResource;
+    }
+
+    @RequestMapping(value = { WebJarsBundle.PATH + "{hash}/{name:.+}" })
+    public void bundle(@PathVariable String hash, @PathVariable String name,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        int dot = name.lastIndexOf('.');
+        WebJarsBundle bundle = (dot > 0) ? WebJarsBundle.get(hash, name.substring(0, dot)) : null;
+
+        if (bundle == null || (! name.endsWith("." + bundle.getExtension()))) {
+            throw new NoSuchElementException(name);
+        }
+
+        String key = WebJarsBundle.PATH + hash + "." + bundle.getExtension();
+
+        write(asset(key, () -> new Asset(key, bundle.getContent(), null)), true, request, response);
+    }
+
+    private void write(Asset asset, boolean versioned,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String header = request.getHeader(ACCEPT_ENCODING);
+        String encoding = null;
+        ByteBuffer content = asset.bytes;
+
+        if (asset.br != null && accepts(header, BR)) {
+            encoding = BR;
+            content = asset.br;
+        } else if (asset.gzip != null && accepts(header, GZIP)) {
+            encoding = GZIP;
+            content = asset.gzip;
+        }
+
+        String etag = asset.etag(encoding);
+
+        if (asset.br != null || asset.gzip != null) {
+            response.setHeader(VARY, ACCEPT_ENCODING);
+        }
+
+        response.setHeader(ETAG, etag);
+        response.setHeader(CACHE_CONTROL, versioned ? IMMUTABLE : REVALIDATE);
+
+        if (asset.matches(request.getHeader(IF_NONE_MATCH))) {
+            response.setStatus(SC_NOT_MODIFIED);
+        } else {
+            response.setContentType(asset.type);
+
+            if (encoding != null) {
+                response.setHeader(CONTENT_ENCODING, encoding);
+            }
+
+            response.setContentLength(content.remaining());
+
+            if (! HEAD.name().equals(request.getMethod())) {
+                write(response.getOutputStream(), content.duplicate());
+            }
+        }
+    }
+
+    /*
+     * Heap content is written directly from its backing array; direct
+     * (off-heap) content is copied through a reused per-thread array
+     * (Channels.newChannel() would allocate a transfer array per call).
+     */
+    private static void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] array = TRANSFER.get();
+
+            while (buffer.hasRemaining()) {
+                int length = Math.min(array.length, buffer.remaining());
+
+                buffer.get(array, 0, length);
+                out.write(array, 0, length);
+            }
+        }
+    }
+
+    @ExceptionHandler({ NoSuchElementException.class })
+    @ResponseStatus(value = NOT_FOUND, reason = "Resource not found")
+    public void handleNOT_FOUND() { }
+
+    private Asset asset(String resource, Loader loader) throws IOException {
+        WebJarsAssetStore store = this.store;
+        Asset asset = (store != null) ? store.get(resource) : null;
+
+        if (asset == null) {
+            asset = cache.get(resource);
+
+            if (asset == null) {
+                asset = loader.load();
+
+                long cacheBytes = this.cacheBytes;
+
+                if (asset.size() <= cacheBytes && cache.putIfAbsent(resource, asset) == null) {
+                    cached.addAndGet(asset.size());
+
+                    Iterator<Asset> iterator = cache.values().iterator();
+
+                    while (cached.get() > cacheBytes && iterator.hasNext()) {
+                        Asset evicted = iterator.next();
+
+                        if (evicted != asset) {
+                            iterator.remove();
+                            cached.addAndGet(- evicted.size());
+                        }
+                    }
+                }
+            }
+
+            if (store != null) {
+                Asset direct = store.offer(asset);
+
+                if (direct != null) {
+                    if (cache.remove(resource, asset)) {
+                        cached.addAndGet(- asset.size());
+                    }
+
+                    asset = direct;
+                }
+            }
+        }
+
+        return asset;
+    }
+
+    /**
+     * Method to determine if an {@code Accept-Encoding} header
+     * ({@code token[;q=value], ...}) accepts a content coding.  A coding
+     * is acceptable unless its q-value is {@code 0}.
+     *
+     * @param   header          The {@code Accept-Encoding} header value
+     *                          (may be {@code null}).
+     * @param   coding          The content coding (e.g., {@code gzip}).
+     *
+     * @return  {@code true} if {@code coding} is acceptable;
+     *          {@code false} otherwise.
+     */
+    public static boolean accepts(String header, String coding) {
+        boolean accepts = false;
+
+        if (header != null) {
+            for (String element : header.split(",")) {
+                String[] parts = element.split(";");
+
+                if (parts[0].trim().equalsIgnoreCase(coding)) {
+                    accepts = true;
+
+                    for (int i = 1; i < parts.length; i += 1) {
+                        String parameter = parts[i].trim();
+
+                        if (parameter.startsWith("q=")) {
+                            try {
+                                accepts = Double.parseDouble(parameter.substring(2)) > 0;
+                            } catch (NumberFormatException exception) {
+                                accepts = false;
+                            }
+                        }
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return accepts;
+    }
+
+    /*
+     * An asset's representations: heap buffers when loaded; direct
+     * buffers once promoted to the WebJarsAssetStore.  The buffers are
+     * never modified; callers write duplicates.
+     */
+    @ToString(onlyExplicitlyIncluded = true)
+    static class Asset {
+        @ToString.Include
+        private final String resource;
+        @ToString.Include
+        private final String type;
+        private final String hash;
+        private final ByteBuffer bytes;
+        private final ByteBuffer gzip;
+        private final ByteBuffer br;
+
+        public Asset(String resource) throws IOException {
+            this(resource, read(resource), read(resource + "." + BR));
+        }
+
+        public Asset(String resource, byte[] bytes, byte[] br) throws IOException {
+            if (bytes == null) {
+                throw new NoSuchElementException(resource);
+            }
+
+            this.resource = resource;
+            this.type =
+                MediaTypeFactory.getMediaType(resource)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+            this.hash = DigestUtils.md5DigestAsHex(bytes);
+            this.bytes = ByteBuffer.wrap(bytes);
+            this.gzip = wrap(isCompressible(type, bytes) ? gzip(bytes) : null);
+            this.br = wrap(br);
+        }
+
+        private Asset(Asset asset) {
+            this.resource = asset.resource;
+            this.type = asset.type;
+            this.hash = asset.hash;
+            this.bytes = direct(asset.bytes);
+            this.gzip = direct(asset.gzip);
+            this.br = direct(asset.br);
+        }
+
+        public String resource() { return resource; }
+
+        /*
+         * Copies the representations into direct (off-heap) buffers.
+         */
+        public Asset direct() { return new Asset(this); }
+
+        public long size() {
+            return bytes.remaining()
+                + ((gzip != null) ? gzip.remaining() : 0)
+                + ((br != null) ? br.remaining() : 0);
+        }
+
+        /*
+         * Strong ETags must differ between content-codings.
+         */
+        public String etag(String encoding) {
+            return "\"" + hash + ((encoding != null) ? "-" + encoding : "") + "\"";
+        }
+
+        /*
+         * If-None-Match uses the weak comparison: any representation of
+         * the same content matches.
+         */
+        public boolean matches(String header) {
+            boolean matches = false;
+
+            if (header != null) {
+                for (String tag : header.split(",")) {
+                    tag = tag.trim();
+
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
+                    }
+
+                    matches |=
+                        tag.equals("*")
+                        || tag.equals(etag(null))
+                        || tag.equals(etag(GZIP))
+                        || tag.equals(etag(BR));
+                }
+            }
+
+            return matches;
+        }
+
+        private static byte[] read(String resource) throws IOException {
+            byte[] bytes = null;
+            ClassLoader loader = WebJarsResourceController.class.getClassLoader();
+
+            try (InputStream in = loader.getResourceAsStream(resource)) {
+                if (in != null) {
+                    bytes = StreamUtils.copyToByteArray(in);
+                }
+            }
+
+            return bytes;
+        }
+
+        private static ByteBuffer wrap(byte[] bytes) {
+            return (bytes != null) ? ByteBuffer.wrap(bytes) : null;
+        }
+
+        private static ByteBuffer direct(ByteBuffer buffer) {
+            ByteBuffer direct = null;
+
+            if (buffer != null) {
+                direct = ByteBuffer.allocateDirect(buffer.remaining());
+                direct.put(buffer.duplicate());
+                direct.flip();
+                direct = direct.asReadOnlyBuffer();
+            }
+
+            return direct;
+        }
+
+        private static boolean isCompressible(String type, byte[] bytes) {
+            return bytes.length >= MIN_COMPRESSIBLE
+                && (type.startsWith("text/")
+                    || type.contains("javascript")
+                    || type.contains("json")
+                    || type.contains("xml")
+                    || type.contains("svg"));
+        }
+
+        private static byte[] gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+
+            try (GZIPOutputStream gzip = new BestCompressionGZIPOutputStream(out)) {
+                gzip.write(bytes);
+            }
+
+            byte[] gzip = out.toByteArray();
+
+            return (gzip.length < bytes.length) ? gzip : null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Loader {
+        Asset load() throws IOException;
+    }
+
+    private static class BestCompressionGZIPOutputStream extends GZIPOutputStream {
+        public BestCompressionGZIPOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out);
+
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ball.spring.webjars.autoconfigure;
+/*-
+ * ##########################################################################
+ * Reusable Spring Components
+ * %%
+ * Copyright (C) 2018 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.spring.dialect.WebJarsDialect;
+import ball.spring.webjars.FingerprintedResourceFilter;
+import ball.spring.webjars.WebJarsAssetStore;
+import ball.spring.webjars.WebJarsResourceController;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+
+/**
+ * Auto {@link Configuration}.  Provides the single {@link WebJarsDialect}
+ * {@link Bean} Spring Boot adds to the {@link SpringTemplateEngine} and,
+ * in servlet web applications, the {@link WebJarsResourceController}.  The
+ * dialect is configured from the environment by
+ * {@link WebJarsDialect#of(org.springframework.core.env.PropertyResolver)}
+ * ({@code spring.thymeleaf.cache}, {@code webjars.cdn.*}, and
+ * {@code webjars.preload.enabled}).  Also configured with:
+ *
+ * <table>
+ *   <tr><th>Property</th><th>Default</th><th>Description</th></tr>
+ *   <tr>
+ *     <td>{@code webjars.resources.enabled}</td><td>{@code true}</td>
+ *     <td>Serve {@code /webjars/**} with {@link WebJarsResourceController}</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@code webjars.resources.cache-bytes}</td>
+ *     <td>{@value WebJarsResourceController#DEFAULT_CACHE_BYTES}</td>
+ *     <td>See {@link WebJarsResourceController#setCacheBytes(long)}</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@code webjars.resources.store.capacity}</td><td>{@code 0}</td>
+ *     <td>{@link WebJarsAssetStore} off-heap bytes ({@code 0} disables)</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@code webjars.resources.store.threshold}</td>
+ *     <td>{@value WebJarsAssetStore#DEFAULT_THRESHOLD}</td>
+ *     <td>See {@link WebJarsAssetStore#getThreshold()}</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@code webjars.fingerprint.enabled}</td><td>{@code false}</td>
+ *     <td>See {@link Fingerprint}</td>
+ *   </tr>
+ * </table>
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@Configuration
+@ConditionalOnClass({ WebJarsDialect.class, SpringTemplateEngine.class })
+@NoArgsConstructor @ToString @Log4j2
+public class AutoConfiguration {
+    @Value("${webjars.resources.cache-bytes:" + WebJarsResourceController.DEFAULT_CACHE_BYTES + "}")
+    private long cacheBytes = WebJarsResourceController.DEFAULT_CACHE_BYTES;
+
+    @Value("${webjars.resources.store.capacity:0}")
+    private long storeCapacity = 0;
+
+    @Value("${webjars.resources.store.threshold:" + WebJarsAssetStore.DEFAULT_THRESHOLD + "}")
+    private int storeThreshold = WebJarsAssetStore.DEFAULT_THRESHOLD;
+
+    @Bean
+    @ConditionalOnMissingBean
+    public WebJarsDialect webJarsDialect(Environment environment) {
+        return WebJarsDialect.of(environment);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "webjars.resources.enabled", havingValue = "true", matchIfMissing = true)
+    public WebJarsResourceController webJarsResourceController() {
+        WebJarsResourceController controller = new WebJarsResourceController();
+
+        controller.setCacheBytes(cacheBytes);
+
+        if (storeCapacity > 0) {
+            controller.setStore(new WebJarsAssetStore(storeCapacity, storeThreshold));
+        }
+
+        return controller;
+    }
+
+    /**
+     * Content-hash fingerprinting of local static resources.  Spring Boot
+     * serves the fingerprinted resources itself (configure
+     * {@code spring.web.resources.chain.strategy.content.enabled=true} and
+     * {@code spring.web.resources.chain.strategy.content.paths}, which
+     * honors {@code spring.mvc.static-path-pattern} and
+     * {@code spring.web.resources.*}); this configuration fingerprints
+     * {@code webjars:href} and {@code webjars:src} paths with the
+     * {@link ResourceUrlProvider} (see
+     * {@link WebJarsDialect#setFingerprinter(java.util.function.UnaryOperator)})
+     * and marks successful fingerprinted responses immutable with the
+     * {@link FingerprintedResourceFilter}.  (A resource handler cache
+     * control would apply to non-fingerprinted paths, too.)
+     */
+    @Configuration
+    @ConditionalOnClass({ ResourceUrlProvider.class })
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "webjars.fingerprint.enabled", havingValue = "true")
+    @NoArgsConstructor @ToString
+    public static class Fingerprint {
+        /*
+         * The ResourceUrlProvider is created by the MVC configuration so it
+         * is looked up lazily.
+         */
+        @Autowired
+        public void configure(WebJarsDialect dialect, ObjectProvider<ResourceUrlProvider> provider) {
+            dialect.setFingerprinter(t -> provider.getObject().getForLookupPath(t));
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public FingerprintedResourceFilter fingerprintedResourceFilter() {
+            return new FingerprintedResourceFilter();
+        }
+    }
+}